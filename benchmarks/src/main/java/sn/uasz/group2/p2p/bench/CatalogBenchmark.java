@@ -0,0 +1,138 @@
+package sn.uasz.group2.p2p.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import sn.uasz.group2.p2p.CatalogCodec;
+import sn.uasz.group2.p2p.FileMetadata;
+import sn.uasz.group2.p2p.SearchIndex;
+
+/**
+ * Catalogue LIST (format {@link CatalogCodec}) de 1 000 à 1 000 000
+ * entrées : encodage d'une List&lt;FileMetadata&gt; en mémoire, et décodage
+ * du flux correspondant. Noms répartis dans 100 dossiers, comme un partage
+ * réel (préfixes communs).
+ *
+ * Référence : le format d'origine de LIST, la List&lt;FileMetadata&gt;
+ * passée à ObjectOutputStream (javaSerialEncode / javaSerialDecode). La
+ * taille sur le fil des deux formats est affichée au début de chaque essai.
+ * FileMetadata garde aujourd'hui son SHA-256 brut : la référence est donc
+ * un peu plus compacte que l'original, qui sérialisait 64 caractères hex.
+ *
+ * SEARCH sur le même catalogue ({@link SearchIndex}, 100 résultats, vue
+ * triée par nom fournie comme dans SharedIndex) : requête sélective (au
+ * plus 1 000 entrées, tas des 100 premiers noms) et requête large (toutes
+ * les entrées candidates, parcours par nom arrêté à la limite).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class CatalogBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int entries;
+
+    private List<FileMetadata> catalog;
+    private byte[] encoded;
+    private byte[] serialized;
+    private ByteArrayOutputStream out;
+    private SearchIndex searchIndex;
+    private Collection<FileMetadata> byName;
+    private final SearchIndex.Query selective = SearchIndex.Query.parse("fichier-0000 ext:dat");
+    private final SearchIndex.Query broad = SearchIndex.Query.parse("ext:dat");
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random rnd = new Random(42);
+        catalog = new ArrayList<>(entries);
+        byte[] sha = new byte[32];
+        for (int i = 0; i < entries; i++) {
+            rnd.nextBytes(sha);
+            String name = String.format("dossier-%02d/sous-dossier-%d/fichier-%07d.dat", i % 100, i % 7, i);
+            catalog.add(new FileMetadata(name, rnd.nextInt(1 << 30), sha.clone(), 1_700_000_000_000L + i));
+        }
+        out = new ByteArrayOutputStream(entries * 128);
+        encoded = encode();
+        serialized = serialize();
+        System.out.printf(Locale.ROOT, "%n%d entrées sur le fil : CatalogCodec %d o (%.1f o/entrée), sérialisation Java %d o (%.1f o/entrée)%n",
+                entries, encoded.length, (double) encoded.length / entries,
+                serialized.length, (double) serialized.length / entries);
+        searchIndex = new SearchIndex();
+        // ordre d'ajout mélangé : les numéros internes ne suivent pas les noms
+        for (int i = 0; i < entries; i++) searchIndex.add(catalog.get((int) ((i * 7919L) % entries)));
+        TreeMap<String, FileMetadata> sorted = new TreeMap<>();
+        for (FileMetadata fm : catalog) sorted.put(fm.getName(), fm);
+        byName = sorted.values();
+    }
+
+    @Benchmark
+    public int listEncode() throws IOException {
+        return encode().length;
+    }
+
+    @Benchmark
+    public int listDecode(Blackhole bh) throws IOException {
+        CatalogCodec.Reader r = new CatalogCodec.Reader(new ByteArrayInputStream(encoded));
+        int n = 0;
+        while (r.advance()) {
+            bh.consume(r.getMetadata());
+            n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int javaSerialEncode() throws IOException {
+        return serialize().length;
+    }
+
+    @Benchmark
+    public int javaSerialDecode() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return ((List<?>) in.readObject()).size();
+        }
+    }
+
+    @Benchmark
+    public List<FileMetadata> searchSelective() {
+        return searchIndex.search(selective, 100, byName);
+    }
+
+    @Benchmark
+    public List<FileMetadata> searchBroad() {
+        return searchIndex.search(broad, 100, byName);
+    }
+
+    /** Comme l'ancien LIST : toute la liste d'un coup dans un ObjectOutputStream. */
+    private byte[] serialize() throws IOException {
+        out.reset();
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(catalog);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] encode() throws IOException {
+        out.reset();
+        CatalogCodec.Writer w = new CatalogCodec.Writer(out, false, 1, entries, entries);
+        for (FileMetadata fm : catalog) w.write(fm);
+        w.finish();
+        return out.toByteArray();
+    }
+}
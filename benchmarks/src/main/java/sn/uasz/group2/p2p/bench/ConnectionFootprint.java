@@ -0,0 +1,188 @@
+package sn.uasz.group2.p2p.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import sn.uasz.group2.p2p.PeerServer;
+import sn.uasz.group2.p2p.SharedIndex;
+
+/**
+ * Coût des connexions inactives par moteur de {@link PeerServer} : N
+ * connexions persistantes (MUX négocié, puis plus rien) sont ouvertes d'un
+ * coup, et on mesure :
+ *  - le débit d'acceptation (connexions ouvertes et négociées par seconde) ;
+ *  - le tas retenu (après GC), le RSS du processus et les threads par
+ *    connexion ouverte.
+ *
+ * Clients et serveur partagent la JVM : une passe de référence sur un
+ * serveur nu (accepte et garde les sockets, sans thread) donne le coût de
+ * la paire de sockets elle-même, retranché des chiffres "net". Le moteur
+ * VIRTUAL demande un JDK 21+ (sinon le serveur repasse en THREADS, affiché).
+ * Le RSS d'une passe profite de la mémoire libérée par la précédente : pour
+ * comparer les RSS, lancer un moteur par exécution (--engines virtual).
+ *
+ *   java -cp benchmarks/target/benchmarks.jar sn.uasz.group2.p2p.bench.ConnectionFootprint \
+ *       --engines threads,virtual --connections 2000
+ */
+public final class ConnectionFootprint {
+    private static final String MUX = "MUX\n";
+    private static final String MUX_OK = "OK MUX\n";
+
+    private String[] engines = { "threads", "virtual" };
+    private int connections = 2000;
+    private int basePort = 29600; // hors de la plage éphémère (ports clients en TIME_WAIT)
+
+    public static void main(String[] args) throws Exception {
+        ConnectionFootprint f = new ConnectionFootprint();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--engines": f.engines = args[++i].split(","); break;
+                case "--connections": f.connections = Integer.parseInt(args[++i]); break;
+                case "--port": f.basePort = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Usage: ConnectionFootprint [--engines threads,virtual] [--connections N] [--port P]");
+                    System.exit(2);
+            }
+        }
+        f.run();
+        System.exit(0);
+    }
+
+    /** Mesures d'une passe. */
+    private static final class Sample {
+        double acceptsPerSec;
+        long heap, rss, threads;
+    }
+
+    private void run() throws Exception {
+        // pas de refus pendant la mesure : toutes les connexions doivent tenir
+        System.setProperty("p2p.server.maxOpenConnections", String.valueOf(connections + 16));
+        Path share = Files.createTempDirectory("footprint-conn-");
+        try (SharedIndex index = new SharedIndex(share)) {
+            Sample raw = rawBaseline(basePort);
+            System.out.printf(Locale.ROOT, "%d connexions inactives ; référence sockets nues : %.0f o de tas, %.1f Kio de RSS par paire%n%n",
+                    connections, (double) raw.heap / connections, raw.rss / 1024.0 / connections);
+            System.out.printf(Locale.ROOT, "%-8s %14s %16s %16s %14s%n",
+                    "moteur", "accept/s", "tas net/conn", "RSS net/conn", "threads/conn");
+            int port = basePort + 1;
+            for (String name : engines) {
+                PeerServer server = new PeerServer(port, index, PeerServer.engineOf(name), 256);
+                server.start();
+                Thread.sleep(200);
+                Sample s = measure(port);
+                String engine = server.getEngine().toString();
+                server.close();
+                System.out.printf(Locale.ROOT, "%-8s %14.0f %14.0f o %12.1f Kio %14.2f%n",
+                        engine, s.acceptsPerSec, (double) (s.heap - raw.heap) / connections,
+                        (s.rss - raw.rss) / 1024.0 / connections, (double) s.threads / connections);
+                port++;
+                Thread.sleep(500); // fin des threads du serveur fermé
+            }
+        } finally {
+            deleteTree(share);
+        }
+    }
+
+    /** Ouvre N connexions MUX vers port, les garde ouvertes le temps de la mesure, puis les ferme. */
+    private Sample measure(int port) throws IOException {
+        long heap0 = usedHeap(), rss0 = rss();
+        int threads0 = ManagementFactory.getThreadMXBean().getThreadCount();
+        List<SocketChannel> open = new ArrayList<>(connections);
+        Sample s = new Sample();
+        try {
+            long t0 = System.nanoTime();
+            InetSocketAddress addr = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            for (int i = 0; i < connections; i++) {
+                SocketChannel ch = SocketChannel.open(addr);
+                open.add(ch);
+                ch.write(ByteBuffer.wrap(MUX.getBytes(StandardCharsets.US_ASCII)));
+            }
+            ByteBuffer reply = ByteBuffer.allocate(MUX_OK.length());
+            for (SocketChannel ch : open) {
+                reply.clear();
+                while (reply.hasRemaining()) {
+                    if (ch.read(reply) < 0) throw new IOException("Connexion refusée par le serveur");
+                }
+                if (!MUX_OK.equals(new String(reply.array(), StandardCharsets.US_ASCII))) {
+                    throw new IOException("Réponse inattendue: " + new String(reply.array(), StandardCharsets.US_ASCII));
+                }
+            }
+            s.acceptsPerSec = connections / ((System.nanoTime() - t0) / 1e9);
+            s.heap = usedHeap() - heap0;
+            s.rss = rss() - rss0;
+            s.threads = ManagementFactory.getThreadMXBean().getThreadCount() - threads0;
+        } finally {
+            for (SocketChannel ch : open) ch.close();
+        }
+        return s;
+    }
+
+    /** Serveur nu : accepte et garde les sockets, répond OK MUX, aucun thread par connexion. */
+    private Sample rawBaseline(int port) throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        List<SocketChannel> accepted = new ArrayList<>(connections);
+        Thread acceptor = new Thread(() -> {
+            ByteBuffer in = ByteBuffer.allocate(MUX.length());
+            try {
+                while (accepted.size() < connections) {
+                    SocketChannel ch = server.accept();
+                    in.clear();
+                    while (in.hasRemaining() && ch.read(in) >= 0) { }
+                    ch.write(ByteBuffer.wrap(MUX_OK.getBytes(StandardCharsets.US_ASCII)));
+                    synchronized (accepted) { accepted.add(ch); }
+                }
+            } catch (IOException e) {
+                // serveur fermé
+            }
+        }, "raw-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        try {
+            return measure(port);
+        } finally {
+            server.close();
+            synchronized (accepted) {
+                for (SocketChannel ch : accepted) ch.close();
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** RSS du processus en octets (Linux, /proc/self/status), 0 ailleurs. */
+    private static long rss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        } catch (IOException | NumberFormatException e) {
+            // pas de /proc
+        }
+        return 0;
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package sn.uasz.group2.p2p.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import sn.uasz.group2.p2p.CryptoUtils;
+
+/**
+ * Hash de fichiers (CryptoUtils.sha256Hex / sha256Bytes) de 4 Kio à 64 Mio,
+ * fichiers dans le cache de pages (le disque n'est pas mesuré), pré-contrôle
+ * CRC32C seul ou calculé avec le SHA-256, et conversion hex de tableaux de
+ * 32 octets (un SHA-256) à 64 Kio, en chaîne ou dans un tampon réutilisé.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class FileState {
+        @Param({ "4096", "1048576", "67108864" })
+        public int size;
+
+        public File file;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            Path p = Files.createTempFile("bench-sha-", ".bin");
+            byte[] data = new byte[size];
+            new Random(42).nextBytes(data);
+            Files.write(p, data);
+            file = p.toFile();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class HexState {
+        @Param({ "32", "1024", "65536" })
+        public int length;
+
+        public byte[] bytes;
+        public byte[] out;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            bytes = new byte[length];
+            out = new byte[2 * length];
+            new Random(42).nextBytes(bytes);
+        }
+    }
+
+    @Benchmark
+    public String sha256Hex(FileState s) throws IOException {
+        return CryptoUtils.sha256Hex(s.file);
+    }
+
+    @Benchmark
+    public byte[] sha256Bytes(FileState s) throws IOException {
+        return CryptoUtils.sha256Bytes(s.file);
+    }
+
+    @Benchmark
+    public CryptoUtils.FileDigest sha256WithCrc32c(FileState s) throws IOException {
+        return CryptoUtils.sha256WithCrc32c(s.file);
+    }
+
+    @Benchmark
+    public int crc32c(FileState s) throws IOException {
+        return CryptoUtils.crc32c(s.file);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String bytesToHex(HexState s) {
+        return CryptoUtils.bytesToHex(s.bytes);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public byte[] bytesToHexInto(HexState s) {
+        CryptoUtils.bytesToHex(s.bytes, 0, s.bytes.length, s.out, 0);
+        return s.out;
+    }
+}
@@ -0,0 +1,150 @@
+package sn.uasz.group2.p2p.bench;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import sn.uasz.group2.p2p.CryptoUtils;
+import sn.uasz.group2.p2p.PeerServer;
+import sn.uasz.group2.p2p.SharedIndex;
+
+/**
+ * GET d'un gros fichier (1 Gio) en boucle locale, avant et après le passage
+ * au zéro-copie :
+ *  - get : PeerServer actuel (FileChannel.transferTo vers la socket, puis le
+ *    SHA-256 repris de l'index) ;
+ *  - getLegacy : le traitement GET d'origine, reproduit sur un ServerSocket
+ *    (InputStream.transferTo dans la socket, puis relecture complète du
+ *    fichier pour le SHA-256 final).
+ * Le client lit la réponse brute sans l'écrire ni la hasher : seul le coût
+ * côté serveur diffère. Prévoir 1 Gio libre dans le dossier temporaire.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.util.logging.config.file=/dev/null")
+@State(Scope.Benchmark)
+public class GetBenchmark {
+
+    @Param({ "1073741824" })
+    public long fileSize;
+
+    private Path shareDir;
+    private SharedIndex index;
+    private PeerServer server;
+    private ServerSocket legacy;
+    private InetAddress host;
+    private int port;
+    private final byte[] sink = new byte[1 << 20];
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        shareDir = Files.createTempDirectory("bench-get-");
+        Random rnd = new Random(42);
+        byte[] block = new byte[8 << 20];
+        try (OutputStream out = Files.newOutputStream(shareDir.resolve("fichier.bin"))) {
+            for (long left = fileSize; left > 0; left -= block.length) {
+                rnd.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, left));
+            }
+        }
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        index = new SharedIndex(shareDir);
+        server = new PeerServer(port, index);
+        server.start();
+        host = InetAddress.getLoopbackAddress();
+
+        legacy = new ServerSocket(0, 50, host);
+        Thread t = new Thread(this::legacyLoop, "legacy-get");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        legacy.close();
+        server.close();
+        index.close();
+        deleteTree(shareDir);
+    }
+
+    @Benchmark
+    public long get() throws IOException {
+        return fetch(port);
+    }
+
+    @Benchmark
+    public long getLegacy() throws IOException {
+        return fetch(legacy.getLocalPort());
+    }
+
+    /** GET en une commande par connexion : en-tête, taille, contenu, SHA-256 (32 octets). */
+    private long fetch(int p) throws IOException {
+        try (Socket s = new Socket(host, p)) {
+            OutputStream out = s.getOutputStream();
+            out.write("GET fichier.bin\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+            StringBuilder header = new StringBuilder();
+            for (int c; (c = in.read()) != '\n'; ) {
+                if (c < 0) throw new EOFException("En-tête incomplet");
+                header.append((char) c);
+            }
+            if (!header.toString().equals("OK")) throw new IOException("Serveur a répondu: " + header);
+            long size = in.readLong();
+            for (long left = size; left > 0; ) {
+                int n = in.read(sink, 0, (int) Math.min(sink.length, left));
+                if (n < 0) throw new EOFException("Contenu incomplet");
+                left -= n;
+            }
+            in.readFully(sink, 0, 32);
+            return size;
+        }
+    }
+
+    /** GET tel que servi avant le zéro-copie (une connexion à la fois suffit ici). */
+    private void legacyLoop() {
+        while (!legacy.isClosed()) {
+            try (Socket s = legacy.accept();
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                 OutputStream rawOut = s.getOutputStream()) {
+                String line = in.readLine();
+                File f = line != null && line.startsWith("GET ") ? index.resolve(line.substring(4).trim()) : null;
+                if (f == null || !f.isFile()) {
+                    rawOut.write("ERR NotFound\n".getBytes());
+                    continue;
+                }
+                rawOut.write("OK\n".getBytes());
+                rawOut.flush();
+                DataOutputStream out = new DataOutputStream(rawOut);
+                out.writeLong(f.length());
+                try (InputStream fileIn = new BufferedInputStream(new FileInputStream(f))) {
+                    fileIn.transferTo(out);
+                }
+                out.write(CryptoUtils.sha256Bytes(f));
+                out.flush();
+            } catch (IOException e) {
+                // socket fermée au tearDown
+            }
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package sn.uasz.group2.p2p.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import sn.uasz.group2.p2p.FileMetadata;
+import sn.uasz.group2.p2p.HashCache;
+import sn.uasz.group2.p2p.SharedIndex;
+
+/**
+ * Index d'un partage de N fichiers répartis dans 100 dossiers :
+ *  - startCold : démarrage sans cache de hash (tous les fichiers sont hashés) ;
+ *  - startWarm : démarrage avec le {@link HashCache} laissé par le démarrage
+ *    précédent (parcours et attributs seulement, aucun fichier relu) ;
+ *  - updateOneFile : délai entre la réécriture d'un fichier et sa prise en
+ *    compte par l'index (WatchService, re-hash de ce seul fichier par le
+ *    watcher). L'entrée est relue directement dans la table triée :
+ *    lookup() revaliderait et re-hasherait elle-même sur le thread du
+ *    benchmark, court-circuitant le watcher.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Djava.util.logging.config.file=/dev/null")
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+    @Param({ "10000" })
+    public int files;
+
+    @Param({ "65536" })
+    public int fileSize;
+
+    private Path shareDir, cacheDir, warmCache;
+    private SharedIndex index;
+    private byte[] content;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        shareDir = Files.createTempDirectory("bench-index-");
+        cacheDir = Files.createTempDirectory("bench-index-cache-");
+        Random rnd = new Random(42);
+        content = new byte[fileSize + 1];
+        for (int i = 0; i < files; i++) {
+            rnd.nextBytes(content);
+            Path dir = shareDir.resolve(String.format("dossier-%02d", i % 100));
+            Files.createDirectories(dir);
+            Files.write(dir.resolve(String.format("fichier-%06d.bin", i)), Arrays.copyOf(content, fileSize));
+        }
+        warmCache = cacheDir.resolve("warm.bin");
+        new SharedIndex(shareDir, new HashCache(warmCache)).close(); // cache écrit à la fermeture
+        index = new SharedIndex(shareDir, new HashCache(cacheDir.resolve("live.bin")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        index.close();
+        deleteTree(shareDir);
+        deleteTree(cacheDir);
+    }
+
+    @Benchmark
+    public int startCold() throws IOException {
+        Path cache = cacheDir.resolve("cold.bin");
+        Files.deleteIfExists(cache);
+        SharedIndex cold = new SharedIndex(shareDir, new HashCache(cache));
+        int n = cold.size();
+        cold.close();
+        return n;
+    }
+
+    @Benchmark
+    public int startWarm() throws IOException {
+        SharedIndex warm = new SharedIndex(shareDir, new HashCache(warmCache));
+        int n = warm.size();
+        warm.close();
+        return n;
+    }
+
+    /** Réécrit un fichier avec une autre taille et attend que le watcher l'ait pris en compte. */
+    @Benchmark
+    public FileMetadata updateOneFile() throws IOException {
+        int i = next++ % files;
+        String name = String.format("dossier-%02d/fichier-%06d.bin", i % 100, i);
+        FileMetadata before = peek(name);
+        int size = before != null && before.getSize() == fileSize ? fileSize + 1 : fileSize;
+        content[0]++;
+        Files.write(shareDir.resolve(name), Arrays.copyOf(content, size));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            FileMetadata now = peek(name);
+            if (now != null && now.getSize() == size) return now;
+            if (System.nanoTime() > deadline) throw new IOException("Index non mis à jour: " + name);
+            LockSupport.parkNanos(50_000);
+        }
+    }
+
+    /**
+     * Entrée de l'index telle quelle, sans revalidation : premier nom
+     * strictement après name privé de son dernier caractère, soit name
+     * lui-même s'il est indexé.
+     */
+    private FileMetadata peek(String name) {
+        Iterator<FileMetadata> it = index.entriesAfter(name.substring(0, name.length() - 1)).iterator();
+        FileMetadata fm = it.hasNext() ? it.next() : null;
+        return fm != null && fm.getName().equals(name) ? fm : null;
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
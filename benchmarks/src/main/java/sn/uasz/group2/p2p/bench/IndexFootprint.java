@@ -0,0 +1,108 @@
+package sn.uasz.group2.p2p.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import sn.uasz.group2.p2p.HashCache;
+import sn.uasz.group2.p2p.SharedIndex;
+
+/**
+ * Empreinte mémoire d'un {@link SharedIndex} de plusieurs millions
+ * d'entrées : un vrai partage (1 000 fichiers de 8 octets par dossier,
+ * contenus tous différents) est indexé à chaque palier, puis le tas
+ * retenu est mesuré après GC, moins celui d'avant la construction. Tout
+ * ce que l'index garde est compté : table triée, index de recherche,
+ * index par contenu, cache de hash, journal des changements.
+ *
+ * Le coût par entrée doit rester à peu près constant d'un palier à
+ * l'autre. Avec --max-bytes-per-entry, le code de sortie vaut 1 si un
+ * palier le dépasse.
+ *
+ *   java -Xmx4g -cp benchmarks/target/benchmarks.jar sn.uasz.group2.p2p.bench.IndexFootprint \
+ *       --sizes 250000,500000,1000000,2000000 --max-bytes-per-entry 800
+ */
+public final class IndexFootprint {
+    private static final int FILES_PER_DIR = 1000;
+
+    private int[] sizes = { 250_000, 500_000, 1_000_000 };
+    private double maxBytesPerEntry = -1;
+
+    private Path shareDir, cacheDir;
+    private int created;
+
+    public static void main(String[] args) throws IOException {
+        IndexFootprint f = new IndexFootprint();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes": f.sizes = Stream.of(args[++i].split(",")).mapToInt(Integer::parseInt).sorted().toArray(); break;
+                case "--max-bytes-per-entry": f.maxBytesPerEntry = Double.parseDouble(args[++i]); break;
+                default:
+                    System.err.println("Usage: IndexFootprint [--sizes N,N,...] [--max-bytes-per-entry X]");
+                    System.exit(2);
+            }
+        }
+        System.exit(f.run() ? 0 : 1);
+    }
+
+    private boolean run() throws IOException {
+        shareDir = Files.createTempDirectory("footprint-share-");
+        cacheDir = Files.createTempDirectory("footprint-cache-");
+        boolean ok = true;
+        try {
+            System.out.printf(Locale.ROOT, "%12s %12s %12s %14s%n", "entrées", "indexation", "tas retenu", "octets/entrée");
+            for (int n : sizes) {
+                growTo(n);
+                long before = usedHeap();
+                long t0 = System.nanoTime();
+                SharedIndex index = new SharedIndex(shareDir, new HashCache(cacheDir.resolve("cache-" + n + ".bin")));
+                long ms = (System.nanoTime() - t0) / 1_000_000;
+                long retained = usedHeap() - before;
+                int entries = index.size();
+                index.close();
+                double perEntry = (double) retained / entries;
+                System.out.printf(Locale.ROOT, "%12d %10d ms %9.0f Mo %14.0f%n", entries, ms, retained / 1e6, perEntry);
+                if (entries != n) {
+                    System.out.printf("ÉCHEC : %d entrées indexées sur %d fichiers%n", entries, n);
+                    ok = false;
+                }
+                if (maxBytesPerEntry >= 0 && perEntry > maxBytesPerEntry) {
+                    System.out.printf(Locale.ROOT, "ÉCHEC : %.0f octets par entrée (seuil %.0f)%n", perEntry, maxBytesPerEntry);
+                    ok = false;
+                }
+            }
+        } finally {
+            deleteTree(shareDir);
+            deleteTree(cacheDir);
+        }
+        return ok;
+    }
+
+    /** Complète le partage jusqu'à n fichiers ; le contenu (numéro du fichier) les rend tous distincts. */
+    private void growTo(int n) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(8);
+        for (; created < n; created++) {
+            Path dir = shareDir.resolve(String.format("dossier-%04d", created / FILES_PER_DIR));
+            if (created % FILES_PER_DIR == 0) Files.createDirectories(dir);
+            content.clear();
+            content.putLong(created);
+            Files.write(dir.resolve(String.format("fichier-%07d.dat", created)), content.array());
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
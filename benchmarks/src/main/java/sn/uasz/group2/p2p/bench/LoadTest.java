@@ -0,0 +1,459 @@
+package sn.uasz.group2.p2p.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import sn.uasz.group2.p2p.Metrics;
+import sn.uasz.group2.p2p.PeerClient;
+import sn.uasz.group2.p2p.PeerServer;
+import sn.uasz.group2.p2p.SharedIndex;
+
+/**
+ * Test de charge hors ligne, sur une seule machine : N pairs (PeerServer +
+ * SharedIndex sur des partages synthétiques) en boucle locale, M clients
+ * (un PeerClient chacun) qui enchaînent LIST et téléchargements selon un
+ * mélange donné, vers un pair tiré au hasard à chaque requête.
+ *
+ * Rapport : requêtes/s et Mo/s agrégés, latence p50/p99/p999/max par
+ * opération, erreurs, pic de threads, pic de tas et GC. Avec des seuils
+ * (--max-p99-ms, --min-mbps, --max-errors), le code de sortie vaut 1 si
+ * l'un d'eux n'est pas tenu : de quoi bloquer une release.
+ *
+ * Avec --bulk-clients, des clients de fond téléchargent des gros fichiers
+ * sans arrêt, hors mélange et hors latences mesurées : le p99 des petits
+ * GET montre alors ce que le partage équitable des envois leur laisse
+ * pendant un gros transfert.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar sn.uasz.group2.p2p.bench.LoadTest --peers 1 --clients 4 \
+ *       --mix small=100 --bulk-clients 1 --large-size 268435456 --max-p99-ms 50
+ *
+ *   mvn -f benchmarks/pom.xml verify -Pload -Dload.args="--peers 4 --clients 32 --duration 30"
+ *   java -cp benchmarks/target/benchmarks.jar sn.uasz.group2.p2p.bench.LoadTest --help
+ */
+public final class LoadTest {
+
+    private enum Op { LIST, SMALL, LARGE }
+
+    // Paramètres (voir usage())
+    private int peers = 4;
+    private int clients = 32;
+    private int durationSec = 30;
+    private int warmupSec = 5;
+    private int basePort = 48000;
+    private int smallFiles = 200;
+    private int smallSize = 64 * 1024;
+    private int largeFiles = 4;
+    private int largeSize = 16 * 1024 * 1024;
+    private final Map<Op, Integer> mix = new LinkedHashMap<>();
+    private double maxP99Ms = -1;
+    private double minMbps = -1;
+    private long maxErrors = -1;
+    private Path jsonOut;
+    private PeerServer.Engine engine = PeerServer.engineOf(System.getProperty("p2p.server.engine", "threads"));
+    private int maxConnections = Integer.getInteger("p2p.server.maxConnections", 256);
+    private int bulkClients = 0;
+
+    private final Map<Op, Metrics.Histogram> latency = new LinkedHashMap<>();
+    private final Map<Op, AtomicLong> errors = new LinkedHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong bulkBytes = new AtomicLong();
+    private volatile boolean measuring;
+    private volatile boolean stop;
+
+    public static void main(String[] args) throws Exception {
+        Logger.getLogger("").setLevel(Level.WARNING); // une ligne par téléchargement sinon
+        LoadTest t = new LoadTest();
+        if (!t.parse(args)) {
+            usage();
+            System.exit(2);
+        }
+        System.exit(t.run() ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.out.println("LoadTest [options]\n"
+                + "  --peers N          pairs en boucle locale (4)\n"
+                + "  --clients M        clients concurrents (32)\n"
+                + "  --duration S       mesure, en secondes (30)\n"
+                + "  --warmup S         chauffe non comptée (5)\n"
+                + "  --base-port P      ports P..P+N-1 (48000)\n"
+                + "  --small-files K    petits fichiers par pair (200)\n"
+                + "  --small-size B     taille des petits fichiers, octets (65536)\n"
+                + "  --large-files K    gros fichiers par pair (4)\n"
+                + "  --large-size B     taille des gros fichiers, octets (16777216)\n"
+                + "  --mix list=20,small=75,large=5   poids des opérations\n"
+                + "  --engine E         moteur des serveurs : threads ou virtual (threads)\n"
+                + "  --max-connections N  requêtes simultanées par serveur (256)\n"
+                + "  --bulk-clients K   gros téléchargements en continu, en fond (0)\n"
+                + "  --max-p99-ms X     échec si un p99 dépasse X ms\n"
+                + "  --min-mbps X       échec si le débit agrégé est sous X Mo/s\n"
+                + "  --max-errors X     échec au-delà de X erreurs\n"
+                + "  --json FICHIER     rapport JSON");
+    }
+
+    private boolean parse(String[] args) {
+        mix.put(Op.LIST, 20);
+        mix.put(Op.SMALL, 75);
+        mix.put(Op.LARGE, 5);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                if (a.equals("--help") || a.equals("-h")) return false;
+                if (i + 1 >= args.length) throw new IllegalArgumentException("valeur manquante pour " + a);
+                String v = args[++i];
+                switch (a) {
+                    case "--peers":       peers = Integer.parseInt(v); break;
+                    case "--clients":     clients = Integer.parseInt(v); break;
+                    case "--duration":    durationSec = Integer.parseInt(v); break;
+                    case "--warmup":      warmupSec = Integer.parseInt(v); break;
+                    case "--base-port":   basePort = Integer.parseInt(v); break;
+                    case "--small-files": smallFiles = Integer.parseInt(v); break;
+                    case "--small-size":  smallSize = Integer.parseInt(v); break;
+                    case "--large-files": largeFiles = Integer.parseInt(v); break;
+                    case "--large-size":  largeSize = Integer.parseInt(v); break;
+                    case "--max-p99-ms":  maxP99Ms = Double.parseDouble(v); break;
+                    case "--min-mbps":    minMbps = Double.parseDouble(v); break;
+                    case "--max-errors":  maxErrors = Long.parseLong(v); break;
+                    case "--json":        jsonOut = Paths.get(v); break;
+                    case "--engine":      engine = PeerServer.Engine.valueOf(v.trim().toUpperCase()); break;
+                    case "--max-connections": maxConnections = Integer.parseInt(v); break;
+                    case "--bulk-clients": bulkClients = Integer.parseInt(v); break;
+                    case "--mix":
+                        mix.replaceAll((op, w) -> 0);
+                        for (String part : v.split(",")) {
+                            String[] kv = part.split("=");
+                            mix.put(Op.valueOf(kv[0].trim().toUpperCase()), Integer.parseInt(kv[1].trim()));
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("option inconnue: " + a);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Arguments invalides: " + e.getMessage());
+            return false;
+        }
+        if (mix.get(Op.LARGE) > 0 && largeFiles == 0) mix.put(Op.LARGE, 0);
+        if (mix.get(Op.SMALL) > 0 && smallFiles == 0) mix.put(Op.SMALL, 0);
+        if (bulkClients > 0 && largeFiles == 0) {
+            System.out.println("Arguments invalides: --bulk-clients demande des gros fichiers");
+            return false;
+        }
+        return peers > 0 && clients > 0 && durationSec > 0 && bulkClients >= 0
+                && mix.values().stream().mapToInt(Integer::intValue).sum() > 0;
+    }
+
+    private boolean run() throws Exception {
+        for (Op op : Op.values()) {
+            latency.put(op, new Metrics.Histogram());
+            errors.put(op, new AtomicLong());
+        }
+        Path root = Files.createTempDirectory("p2p-load-");
+        List<SharedIndex> indexes = new ArrayList<>();
+        List<PeerServer> servers = new ArrayList<>();
+        try {
+            System.out.printf("Partages synthétiques : %d pair(s) x (%d x %d o + %d x %d o)...%n",
+                    peers, smallFiles, smallSize, largeFiles, largeSize);
+            for (int p = 0; p < peers; p++) {
+                Path share = root.resolve("pair-" + p);
+                createShare(share, p);
+                SharedIndex index = new SharedIndex(share);
+                PeerServer server = new PeerServer(basePort + p, index, engine, maxConnections);
+                server.start();
+                indexes.add(index);
+                servers.add(server);
+            }
+            engine = servers.get(0).getEngine(); // VIRTUAL retombe sur THREADS avant le JDK 21
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) heapPools.add(pool);
+            }
+
+            CountDownLatch done = new CountDownLatch(clients + bulkClients);
+            List<Thread> workers = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                Path out = root.resolve("client-" + c);
+                Files.createDirectories(out);
+                Thread t = new Thread(() -> {
+                    try {
+                        clientLoop(out);
+                    } finally {
+                        done.countDown();
+                    }
+                }, "load-client-" + c);
+                t.setDaemon(true);
+                workers.add(t);
+            }
+            for (int c = 0; c < bulkClients; c++) {
+                Path out = root.resolve("bulk-" + c);
+                Files.createDirectories(out);
+                int port = basePort + c % peers;
+                Thread t = new Thread(() -> {
+                    try {
+                        bulkLoop(port, out);
+                    } finally {
+                        done.countDown();
+                    }
+                }, "load-bulk-" + c);
+                t.setDaemon(true);
+                workers.add(t);
+            }
+            System.out.printf("%d client(s), chauffe %d s, mesure %d s, mélange %s, moteur %s (max %d requêtes)%n",
+                    clients, warmupSec, durationSec, mix, engine, maxConnections);
+            if (bulkClients > 0) {
+                System.out.printf("%d client(s) de fond sur des gros fichiers de %d o%n", bulkClients, largeSize);
+            }
+            for (Thread t : workers) t.start();
+            Thread.sleep(warmupSec * 1000L);
+
+            // Début de la mesure : compteurs et pics remis à zéro
+            for (Op op : Op.values()) {
+                latency.put(op, new Metrics.Histogram());
+                errors.get(op).set(0);
+            }
+            bytes.set(0);
+            bulkBytes.set(0);
+            threads.resetPeakThreadCount();
+            for (MemoryPoolMXBean pool : heapPools) pool.resetPeakUsage();
+            long gcCount0 = gcCount(), gcMillis0 = gcMillis();
+            long t0 = System.nanoTime();
+            measuring = true;
+            Thread.sleep(durationSec * 1000L);
+            measuring = false;
+            double secs = (System.nanoTime() - t0) / 1e9;
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : heapPools) peakHeap += pool.getPeakUsage().getUsed();
+            Report r = new Report(secs, threads.getPeakThreadCount(), peakHeap,
+                    gcCount() - gcCount0, gcMillis() - gcMillis0);
+            stop = true;
+            done.await();
+
+            r.print();
+            if (jsonOut != null) r.writeJson(jsonOut);
+            return r.checkGates();
+        } finally {
+            stop = true;
+            for (PeerServer s : servers) s.close();
+            for (SharedIndex i : indexes) i.close();
+            deleteTree(root);
+        }
+    }
+
+    /** Contenu aléatoire reproductible (graine = numéro du pair), donc non compressible. */
+    private void createShare(Path share, int peer) throws IOException {
+        Files.createDirectories(share);
+        Random rnd = new Random(peer);
+        byte[] small = new byte[smallSize];
+        for (int i = 0; i < smallFiles; i++) {
+            rnd.nextBytes(small);
+            Files.write(share.resolve(String.format("petit-%05d.bin", i)), small);
+        }
+        byte[] large = new byte[largeSize];
+        for (int i = 0; i < largeFiles; i++) {
+            rnd.nextBytes(large);
+            Files.write(share.resolve(String.format("gros-%02d.bin", i)), large);
+        }
+    }
+
+    private void clientLoop(Path out) {
+        InetAddress host = InetAddress.getLoopbackAddress();
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        try (PeerClient client = new PeerClient()) {
+            while (!stop) {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                Op op = pick(rnd.nextInt(totalWeight));
+                int port = basePort + rnd.nextInt(peers);
+                long t0 = System.nanoTime();
+                long n = 0;
+                try {
+                    switch (op) {
+                        case LIST:
+                            client.list(host, port);
+                            break;
+                        case SMALL:
+                            client.download(host, port, String.format("petit-%05d.bin", rnd.nextInt(smallFiles)), out);
+                            n = smallSize;
+                            break;
+                        default:
+                            client.download(host, port, String.format("gros-%02d.bin", rnd.nextInt(largeFiles)), out);
+                            n = largeSize;
+                            break;
+                    }
+                    if (measuring) {
+                        latency.get(op).recordMicrosSince(t0);
+                        bytes.addAndGet(n);
+                    }
+                } catch (IOException e) {
+                    if (measuring) errors.get(op).incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /** Client de fond : gros fichiers d'un même pair, l'un après l'autre, erreurs ignorées. */
+    private void bulkLoop(int port, Path out) {
+        InetAddress host = InetAddress.getLoopbackAddress();
+        try (PeerClient client = new PeerClient()) {
+            for (int i = 0; !stop; i++) {
+                try {
+                    client.download(host, port, String.format("gros-%02d.bin", i % largeFiles), out);
+                    if (measuring) bulkBytes.addAndGet(largeSize);
+                } catch (IOException e) {
+                    // le débit de fond suffit comme indicateur
+                }
+            }
+        }
+    }
+
+    private Op pick(int r) {
+        for (Map.Entry<Op, Integer> e : mix.entrySet()) {
+            r -= e.getValue();
+            if (r < 0) return e.getKey();
+        }
+        return Op.LIST;
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+
+    private static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionTime());
+        return n;
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /** Résultats d'une mesure, figés à la fin de la fenêtre. */
+    private final class Report {
+        final double secs;
+        final int peakThreads;
+        final long peakHeap, gcCount, gcMillis;
+        final long totalBytes, totalRequests, totalErrors, backgroundBytes;
+
+        Report(double secs, int peakThreads, long peakHeap, long gcCount, long gcMillis) {
+            this.secs = secs;
+            this.peakThreads = peakThreads;
+            this.peakHeap = peakHeap;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.totalBytes = bytes.get();
+            this.backgroundBytes = bulkBytes.get();
+            long req = 0, err = 0;
+            for (Op op : Op.values()) {
+                req += latency.get(op).getCount();
+                err += errors.get(op).get();
+            }
+            this.totalRequests = req;
+            this.totalErrors = err;
+        }
+
+        double mbps() { return totalBytes / secs / 1e6; }
+
+        void print() {
+            System.out.printf(Locale.ROOT, "%n%-6s %9s %9s %9s %9s %9s %9s %7s%n",
+                    "op", "req", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "err");
+            for (Op op : Op.values()) {
+                Metrics.Histogram h = latency.get(op);
+                if (mix.get(op) == 0) continue;
+                System.out.printf(Locale.ROOT, "%-6s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %7d%n",
+                        op, h.getCount(), h.getCount() / secs, ms(h.percentile(0.50)), ms(h.percentile(0.99)),
+                        ms(h.percentile(0.999)), ms(h.getMax()), errors.get(op).get());
+            }
+            System.out.printf(Locale.ROOT, "%nTotal : %d requêtes en %.1f s (%.1f req/s), %.1f Mo/s, %d erreur(s)%n",
+                    totalRequests, secs, totalRequests / secs, mbps(), totalErrors);
+            if (bulkClients > 0) {
+                System.out.printf(Locale.ROOT, "Fond  : %d gros téléchargement(s) en continu, %.1f Mo/s%n",
+                        bulkClients, backgroundBytes / secs / 1e6);
+            }
+            System.out.printf(Locale.ROOT, "JVM   : pic %d threads, pic de tas %.0f Mo, %d GC (%d ms)%n",
+                    peakThreads, peakHeap / 1e6, gcCount, gcMillis);
+        }
+
+        void writeJson(Path file) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\n");
+            sb.append(String.format(Locale.ROOT, "  \"peers\": %d, \"clients\": %d, \"seconds\": %.3f, \"engine\": \"%s\", \"maxConnections\": %d,%n",
+                    peers, clients, secs, engine.name().toLowerCase(), maxConnections));
+            sb.append(String.format(Locale.ROOT, "  \"requests\": %d, \"requestsPerSecond\": %.3f, \"megabytesPerSecond\": %.3f, \"errors\": %d,%n",
+                    totalRequests, totalRequests / secs, mbps(), totalErrors));
+            sb.append(String.format(Locale.ROOT, "  \"bulkClients\": %d, \"bulkMegabytesPerSecond\": %.3f,%n",
+                    bulkClients, backgroundBytes / secs / 1e6));
+            sb.append(String.format(Locale.ROOT, "  \"peakThreads\": %d, \"peakHeapBytes\": %d, \"gcCount\": %d, \"gcMillis\": %d,%n",
+                    peakThreads, peakHeap, gcCount, gcMillis));
+            sb.append("  \"operations\": {");
+            String sep = "\n";
+            for (Op op : Op.values()) {
+                if (mix.get(op) == 0) continue;
+                Metrics.Histogram h = latency.get(op);
+                sb.append(sep).append(String.format(Locale.ROOT,
+                        "    \"%s\": {\"weight\": %d, \"requests\": %d, \"errors\": %d, \"p50Ms\": %.3f, \"p99Ms\": %.3f, \"p999Ms\": %.3f, \"maxMs\": %.3f}",
+                        op.name().toLowerCase(), mix.get(op), h.getCount(), errors.get(op).get(),
+                        ms(h.percentile(0.50)), ms(h.percentile(0.99)), ms(h.percentile(0.999)), ms(h.getMax())));
+                sep = ",\n";
+            }
+            sb.append("\n  }\n}\n");
+            try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                w.write(sb.toString());
+            }
+            System.out.println("Rapport JSON : " + file.toAbsolutePath());
+        }
+
+        /** Seuils demandés en ligne de commande ; false si l'un d'eux n'est pas tenu. */
+        boolean checkGates() {
+            boolean ok = true;
+            for (Op op : Op.values()) {
+                double p99 = ms(latency.get(op).percentile(0.99));
+                if (maxP99Ms >= 0 && mix.get(op) > 0 && p99 > maxP99Ms) {
+                    System.out.printf(Locale.ROOT, "ÉCHEC : p99 %s = %.2f ms > %.2f ms%n", op, p99, maxP99Ms);
+                    ok = false;
+                }
+            }
+            if (minMbps >= 0 && mbps() < minMbps) {
+                System.out.printf(Locale.ROOT, "ÉCHEC : %.1f Mo/s < %.1f Mo/s%n", mbps(), minMbps);
+                ok = false;
+            }
+            if (maxErrors >= 0 && totalErrors > maxErrors) {
+                System.out.printf("ÉCHEC : %d erreur(s) > %d%n", totalErrors, maxErrors);
+                ok = false;
+            }
+            return ok;
+        }
+
+        private double ms(long micros) {
+            return micros / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package sn.uasz.group2.p2p.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import sn.uasz.group2.p2p.ContentSummary;
+import sn.uasz.group2.p2p.CryptoUtils;
+import sn.uasz.group2.p2p.FileMetadata;
+import sn.uasz.group2.p2p.SearchIndex;
+
+/**
+ * Simulation, sans réseau, de l'élagage des recherches par
+ * {@link ContentSummary} : N pairs aux partages synthétiques (tailles
+ * réparties de 20 à 5 000 fichiers, noms tirés d'un vocabulaire, une part
+ * de contenus populaires présents chez plusieurs pairs), puis des milliers
+ * de requêtes. Pour chacune : pairs contactés (résumé "peut-être"), pairs
+ * qui ont vraiment un résultat, et faux négatifs (toujours 0 attendu).
+ *
+ * Classes de requêtes : sha: d'un contenu existant, sha: absent, nom de
+ * base d'un fichier existant, un mot du vocabulaire, deux mots, ext:
+ * courante (aucun élagage possible). Avec --max-sha-contacts, le code de
+ * sortie vaut 1 si une recherche sha: d'un contenu existant contacte en
+ * moyenne plus de pairs que ce seuil.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar sn.uasz.group2.p2p.bench.SummarySimulation --peers 200
+ */
+public final class SummarySimulation {
+    private static final String[] SYLLABLES = {
+        "ba", "be", "bi", "bo", "da", "de", "di", "do", "fa", "fe", "ka", "ke", "ko", "la", "le", "li",
+        "lo", "ma", "me", "mi", "mo", "na", "ne", "ni", "no", "ra", "re", "ri", "ro", "sa", "se", "si",
+        "so", "ta", "te", "ti", "to", "va", "ve", "zo", "kou", "ndi", "sen", "gal", "dia", "ous"
+    };
+    private static final String[] EXTENSIONS = { "pdf", "mp3", "mp4", "jpg", "png", "docx", "xlsx", "zip", "txt", "iso" };
+
+    private int peers = 200;
+    private int queries = 300;
+    private long seed = 1;
+    private double maxShaContacts = -1;
+
+    private final List<List<FileMetadata>> shares = new ArrayList<>();
+    private final List<ContentSummary> summaries = new ArrayList<>();
+    private String[] vocabulary;
+
+    public static void main(String[] args) {
+        SummarySimulation s = new SummarySimulation();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--peers": s.peers = Integer.parseInt(args[++i]); break;
+                case "--queries": s.queries = Integer.parseInt(args[++i]); break;
+                case "--seed": s.seed = Long.parseLong(args[++i]); break;
+                case "--max-sha-contacts": s.maxShaContacts = Double.parseDouble(args[++i]); break;
+                default:
+                    System.err.println("Usage: SummarySimulation [--peers N] [--queries N] [--seed N] [--max-sha-contacts X]");
+                    System.exit(2);
+            }
+        }
+        System.exit(s.run() ? 0 : 1);
+    }
+
+    private boolean run() {
+        Random rnd = new Random(seed);
+        generate(rnd);
+
+        long t0 = System.nanoTime();
+        for (List<FileMetadata> share : shares) summaries.add(ContentSummary.build(share));
+        long buildMs = (System.nanoTime() - t0) / 1_000_000;
+        reportSizes(buildMs);
+
+        System.out.printf(Locale.ROOT, "%n%-16s %10s %10s %10s %12s%n", "requête", "contactés", "détenteurs", "faux pos.", "faux nég.");
+        double shaContacts = runClass("sha: présent", rnd, r -> {
+            List<FileMetadata> share = shares.get(r.nextInt(peers));
+            return "sha:" + share.get(r.nextInt(share.size())).getSha256Hex();
+        });
+        runClass("sha: absent", rnd, r -> {
+            byte[] sha = new byte[32];
+            r.nextBytes(sha);
+            return "sha:" + CryptoUtils.bytesToHex(sha);
+        });
+        runClass("nom exact", rnd, r -> {
+            List<FileMetadata> share = shares.get(r.nextInt(peers));
+            String name = share.get(r.nextInt(share.size())).getName();
+            return name.substring(name.lastIndexOf('/') + 1);
+        });
+        runClass("1 mot", rnd, r -> vocabulary[r.nextInt(vocabulary.length)]);
+        runClass("2 mots", rnd, r -> vocabulary[r.nextInt(vocabulary.length)] + " " + vocabulary[r.nextInt(vocabulary.length)]);
+        runClass("ext:pdf", rnd, r -> "ext:pdf");
+
+        if (maxShaContacts >= 0 && shaContacts > maxShaContacts) {
+            System.out.printf(Locale.ROOT, "%nÉCHEC : %.1f pairs contactés en moyenne pour sha: (seuil %.1f)%n", shaContacts, maxShaContacts);
+            return false;
+        }
+        return true;
+    }
+
+    /** Partages synthétiques : tailles log-uniformes, 10 % de contenus populaires partagés. */
+    private void generate(Random rnd) {
+        vocabulary = new String[20_000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder w = new StringBuilder();
+            int n = 3 + rnd.nextInt(2);
+            for (int j = 0; j < n; j++) w.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+            vocabulary[i] = w.toString();
+        }
+        List<FileMetadata> popular = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) popular.add(randomFile(rnd, "pop" + i));
+        for (int p = 0; p < peers; p++) {
+            int files = (int) Math.round(Math.exp(Math.log(20) + rnd.nextDouble() * (Math.log(5_000) - Math.log(20))));
+            List<FileMetadata> share = new ArrayList<>(files);
+            for (int f = 0; f < files; f++) {
+                share.add(rnd.nextInt(10) == 0
+                        ? popular.get((int) Math.min(popular.size() - 1, Math.abs(rnd.nextGaussian()) * 200))
+                        : randomFile(rnd, "p" + p + "/d" + rnd.nextInt(20)));
+            }
+            shares.add(share);
+        }
+    }
+
+    private FileMetadata randomFile(Random rnd, String dir) {
+        StringBuilder name = new StringBuilder(dir).append('/');
+        int words = 2 + rnd.nextInt(3);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) name.append(rnd.nextBoolean() ? '_' : ' ');
+            name.append(vocabulary[rnd.nextInt(vocabulary.length)]);
+        }
+        if (rnd.nextInt(4) == 0) name.append('_').append(1990 + rnd.nextInt(35));
+        name.append('.').append(EXTENSIONS[rnd.nextInt(EXTENSIONS.length)]);
+        byte[] sha = new byte[32];
+        rnd.nextBytes(sha);
+        return new FileMetadata(name.toString(), 1 + rnd.nextInt(1 << 24), sha, 0);
+    }
+
+    private void reportSizes(long buildMs) {
+        int[] sizes = new int[peers];
+        int inBeacon = 0;
+        long files = 0;
+        for (int p = 0; p < peers; p++) {
+            sizes[p] = summaries.get(p).encodedSize();
+            if (sizes[p] <= 1024) inBeacon++;
+            files += shares.get(p).size();
+        }
+        Arrays.sort(sizes);
+        System.out.printf(Locale.ROOT, "%d pairs, %d fichiers, résumés construits en %d ms%n", peers, files, buildMs);
+        System.out.printf(Locale.ROOT, "résumé : médiane %d o, p90 %d o, max %d o ; %d pair(s) sur %d dans la balise (<= 1 Kio)%n",
+                sizes[peers / 2], sizes[peers * 9 / 10], sizes[peers - 1], inBeacon, peers);
+    }
+
+    private interface QueryGen { String next(Random r); }
+
+    /** Moyennes par requête ; renvoie le nombre moyen de pairs contactés. */
+    private double runClass(String label, Random rnd, QueryGen gen) {
+        long contacted = 0, holders = 0, falsePositives = 0, falseNegatives = 0;
+        for (int i = 0; i < queries; i++) {
+            String text = gen.next(rnd);
+            SearchIndex.Query q = SearchIndex.Query.parse(text);
+            for (int p = 0; p < peers; p++) {
+                boolean maybe = summaries.get(p).mightMatch(q);
+                boolean has = holds(shares.get(p), text);
+                if (maybe) contacted++;
+                if (has) holders++;
+                if (maybe && !has) falsePositives++;
+                if (!maybe && has) falseNegatives++;
+            }
+        }
+        double c = (double) contacted / queries;
+        System.out.printf(Locale.ROOT, "%-16s %10.1f %10.1f %10.1f %12d%n", label, c,
+                (double) holders / queries, (double) falsePositives / queries, falseNegatives);
+        return c;
+    }
+
+    /** Vérité terrain, mêmes règles que SEARCH pour ces requêtes : sha exact, ext, mots dans le nom de base. */
+    private static boolean holds(List<FileMetadata> share, String text) {
+        String[] tokens = text.toLowerCase(Locale.ROOT).split(" ");
+        for (FileMetadata fm : share) {
+            String name = fm.getName();
+            String base = name.substring(name.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+            boolean all = true;
+            for (String t : tokens) {
+                if (t.startsWith("sha:")) all &= fm.getSha256Hex().equalsIgnoreCase(t.substring(4));
+                else if (t.startsWith("ext:")) all &= base.endsWith("." + t.substring(4));
+                else all &= base.contains(t);
+            }
+            if (all) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+package sn.uasz.group2.p2p.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import sn.uasz.group2.p2p.PeerClient;
+import sn.uasz.group2.p2p.PeerServer;
+import sn.uasz.group2.p2p.SharedIndex;
+
+/**
+ * Téléchargement complet en boucle locale, PeerServer → PeerClient.download()
+ * (CHUNKS puis GETRANGE, vérification par bloc et SHA-256 final) : un petit
+ * fichier (latence par requête) et un gros (débit ; 64 Mio / temps moyen).
+ * Contenu aléatoire : la compression négociée n'est pas appliquée.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Djava.util.logging.config.file=/dev/null")
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    @Param({ "4096", "67108864" })
+    public int fileSize;
+
+    private Path shareDir, downloadDir;
+    private SharedIndex index;
+    private PeerServer server;
+    private PeerClient client;
+    private InetAddress host;
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        shareDir = Files.createTempDirectory("bench-share-");
+        downloadDir = Files.createTempDirectory("bench-dl-");
+        byte[] data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        Files.write(shareDir.resolve("fichier.bin"), data);
+
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        index = new SharedIndex(shareDir);
+        server = new PeerServer(port, index);
+        server.start();
+        host = InetAddress.getLoopbackAddress();
+        client = new PeerClient();
+        client.download(host, port, "fichier.bin", downloadDir); // connexion établie, serveur prêt
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        index.close();
+        deleteTree(shareDir);
+        deleteTree(downloadDir);
+    }
+
+    @Benchmark
+    public Path download() throws IOException {
+        return client.download(host, port, "fichier.bin", downloadDir);
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package sn.uasz.group2.p2p;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Filtre de Bloom : "peut-être présent" ou "certainement absent", sans
+ * faux négatif. Chaque clé est donnée par deux hachages 64 bits (h1, h2) et
+ * les k positions sont h1 + i * h2 (Kirsch-Mitzenmacher), ce qui évite k
+ * fonctions de hachage distinctes.
+ *
+ * Format binaire : k (1 octet), nombre de mots de 64 bits (int), les mots.
+ */
+public final class BloomFilter {
+    /** Plafond accepté au décodage (8 Mio de bits) : un pair ne peut pas faire allouer plus. */
+    private static final int MAX_WORDS = 1 << 20;
+
+    private final long[] bits;
+    private final int k;
+    private final long m;
+
+    private BloomFilter(long[] bits, int k) {
+        this.bits = bits;
+        this.k = k;
+        this.m = (long) bits.length * 64;
+    }
+
+    /**
+     * Filtre dimensionné pour {@code expected} clés distinctes et un taux de
+     * faux positifs {@code fpp} : m = -n ln(p) / ln(2)² bits, k = m/n ln(2).
+     */
+    public static BloomFilter create(int expected, double fpp) {
+        int n = Math.max(1, expected);
+        double bitsNeeded = -n * Math.log(fpp) / (Math.log(2) * Math.log(2));
+        int words = (int) Math.min(MAX_WORDS, Math.max(1, (long) Math.ceil(bitsNeeded / 64)));
+        int k = (int) Math.round((double) words * 64 / n * Math.log(2));
+        return new BloomFilter(new long[words], Math.max(1, Math.min(16, k)));
+    }
+
+    public void add(long h1, long h2) {
+        for (int i = 0; i < k; i++) {
+            long pos = Long.remainderUnsigned(h1 + i * h2, m);
+            bits[(int) (pos >>> 6)] |= 1L << pos;
+        }
+    }
+
+    public boolean mightContain(long h1, long h2) {
+        for (int i = 0; i < k; i++) {
+            long pos = Long.remainderUnsigned(h1 + i * h2, m);
+            if ((bits[(int) (pos >>> 6)] & (1L << pos)) == 0) return false;
+        }
+        return true;
+    }
+
+    public int getHashCount() { return k; }
+
+    /** Taille du filtre en bits. */
+    public long getBitSize() { return m; }
+
+    /** Proportion de bits à 1 : au-delà de 1/2 le filtre est plus chargé que prévu. */
+    public double fillRatio() {
+        long set = 0;
+        for (long w : bits) set += Long.bitCount(w);
+        return (double) set / m;
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(5 + bits.length * 8);
+        try (DataOutputStream out = new DataOutputStream(bout)) {
+            out.writeByte(k);
+            out.writeInt(bits.length);
+            for (long w : bits) out.writeLong(w);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // impossible en mémoire
+        }
+        return bout.toByteArray();
+    }
+
+    public static BloomFilter fromBytes(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int k = in.readUnsignedByte();
+        int words = in.readInt();
+        if (k < 1 || k > 16 || words < 1 || words > MAX_WORDS || data.length != 5 + words * 8) {
+            throw new IOException("Filtre de Bloom invalide (k=" + k + ", " + words + " mots, " + data.length + " octets)");
+        }
+        long[] bits = new long[words];
+        for (int i = 0; i < words; i++) bits[i] = in.readLong();
+        return new BloomFilter(bits, k);
+    }
+
+    /** Finaliseur de MurmurHash3 : diffuse chaque bit d'entrée sur tout le mot. */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    /** Hachage 64 bits d'une chaîne (FNV-1a sur les caractères, puis mix64). */
+    static long hash64(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix64(h);
+    }
+}
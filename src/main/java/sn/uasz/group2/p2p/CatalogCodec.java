@@ -0,0 +1,229 @@
+package sn.uasz.group2.p2p;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Format binaire du catalogue (réponse LIST / LIST SINCE), écrit et lu entrée par entrée.
+ *
+ * <pre>
+ * en-tête : magic "P2PC" (int), version (octet), mode (octet : 0 complet, 1 delta),
+ *           époque (long), génération (varint), nombre total d'entrées chez le pair (varint :
+ *           tout le catalogue, même pour une page de LIST ; pour SEARCH, nombre de résultats envoyés)
+ * ajout   : 1 (octet), nom, taille (varint), date de modif (varint), SHA-256 brut (32 octets)
+ * retrait : 2 (octet), nom
+ * fin     : 0 (octet)
+ * nom     : préfixe commun avec le nom précédent (varint, octets UTF-8),
+ *           longueur du suffixe (varint), suffixe UTF-8
+ * </pre>
+ *
+ * Les noms arrivent triés, d'où la compression par préfixe commun.
+ */
+public final class CatalogCodec {
+    public static final int MAGIC = 0x50325043; // "P2PC"
+    public static final int VERSION = 2;
+    private static final int TAG_END = 0, TAG_ENTRY = 1, TAG_REMOVED = 2;
+    private static final int MODE_FULL = 0, MODE_DELTA = 1;
+    /** Nom le plus long accepté d'un pair (octets UTF-8) : bien au-delà de PATH_MAX, loin de 2 Go. */
+    static final int MAX_NAME_BYTES = 64 * 1024;
+
+    private CatalogCodec() {}
+
+    /** Encodeur en flux : write() pour chaque entrée (triée par nom), puis finish(). */
+    public static final class Writer {
+        private final OutputStream out;
+        private final byte[] buf = new byte[1 << 16];
+        private int pos;
+        private byte[] prev = new byte[0];
+
+        public Writer(OutputStream out, boolean delta, long epoch, long generation, long total) throws IOException {
+            this.out = out;
+            putInt(MAGIC);
+            buf[pos++] = (byte) VERSION;
+            buf[pos++] = (byte) (delta ? MODE_DELTA : MODE_FULL);
+            putInt((int) (epoch >>> 32));
+            putInt((int) epoch);
+            putVarLong(generation);
+            putVarLong(total);
+        }
+
+        public void write(FileMetadata fm) throws IOException {
+            putName(TAG_ENTRY, fm.getName());
+            ensure(2 * 10 + 32);
+            putVarLong(fm.getSize());
+            putVarLong(fm.getLastModified());
+            fm.copySha256To(buf, pos);
+            pos += 32;
+        }
+
+        /** Retrait d'un fichier (catalogue delta uniquement). */
+        public void writeRemoval(String name) throws IOException {
+            putName(TAG_REMOVED, name);
+        }
+
+        private void putName(int tag, String n) throws IOException {
+            byte[] name = n.getBytes(StandardCharsets.UTF_8);
+            int common = 0, max = Math.min(prev.length, name.length);
+            while (common < max && prev[common] == name[common]) common++;
+            int suffix = name.length - common;
+            ensure(1 + 2 * 10);
+            buf[pos++] = (byte) tag;
+            putVarLong(common);
+            putVarLong(suffix);
+            putBytes(name, common, suffix);
+            prev = name;
+        }
+
+        public void finish() throws IOException {
+            ensure(1);
+            buf[pos++] = TAG_END;
+            out.write(buf, 0, pos);
+            pos = 0;
+            out.flush();
+        }
+
+        private void ensure(int n) throws IOException {
+            if (pos + n > buf.length) {
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+        }
+
+        private void putBytes(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (pos == buf.length) ensure(buf.length);
+                int n = Math.min(len, buf.length - pos);
+                System.arraycopy(b, off, buf, pos, n);
+                pos += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void putInt(int v) {
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        /** Entier non signé sur 7 bits par octet (LEB128). */
+        private void putVarLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+    }
+
+    /** Décodeur en flux : advance() jusqu'à false, puis getName() / getMetadata() pour chaque entrée. */
+    public static final class Reader {
+        private final InputStream in;
+        private final byte[] buf = new byte[1 << 16];
+        private int pos, limit;
+        private final boolean delta;
+        private final long epoch;
+        private final long generation;
+        private final long total;
+        private byte[] prev = new byte[0];
+        private String name;
+        private FileMetadata meta;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = in;
+            if (readInt() != MAGIC) throw new IOException("Catalogue: format inconnu");
+            int version = readByte();
+            if (version != VERSION) throw new IOException("Catalogue: version non supportée " + version);
+            this.delta = readByte() == MODE_DELTA;
+            this.epoch = ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+            this.generation = readVarLong();
+            this.total = readVarLong();
+        }
+
+        /** Vrai si seuls les changements depuis la génération demandée suivent. */
+        public boolean isDelta() { return delta; }
+        public long getEpoch() { return epoch; }
+        /** Génération de l'index du pair à laquelle ce catalogue correspond. */
+        public long getGeneration() { return generation; }
+        /** Nombre total d'entrées du catalogue (toutes pages confondues). */
+        public long getTotal() { return total; }
+
+        /** Nom de l'entrée courante. */
+        public String getName() { return name; }
+        /** Métadonnées de l'entrée courante, null si c'est un retrait. */
+        public FileMetadata getMetadata() { return meta; }
+
+        public boolean advance() throws IOException {
+            int tag = readByte();
+            if (tag == TAG_END) return false;
+            if (tag != TAG_ENTRY && tag != TAG_REMOVED) throw new IOException("Catalogue: entrée invalide " + tag);
+            long common = readVarLong();
+            long suffix = readVarLong();
+            // common <= prev.length <= MAX_NAME_BYTES : rien n'est alloué pour un nom hors borne
+            if (common < 0 || common > prev.length || suffix < 0 || suffix > MAX_NAME_BYTES - common) {
+                throw new IOException("Catalogue: nom invalide");
+            }
+            byte[] bytes = new byte[(int) (common + suffix)];
+            System.arraycopy(prev, 0, bytes, 0, (int) common);
+            readFully(bytes, (int) common, (int) suffix);
+            prev = bytes;
+            name = new String(bytes, StandardCharsets.UTF_8);
+            if (tag == TAG_REMOVED) {
+                meta = null;
+                return true;
+            }
+            long size = readVarLong();
+            long lastModified = readVarLong();
+            fill(32);
+            byte[] sha = Arrays.copyOfRange(buf, pos, pos + 32);
+            pos += 32;
+            meta = new FileMetadata(name, size, sha, lastModified);
+            return true;
+        }
+
+        private int readInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        private int readByte() throws IOException {
+            if (pos == limit) fill(1);
+            return buf[pos++] & 0xFF;
+        }
+
+        private long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Varint trop long");
+        }
+
+        private void readFully(byte[] dst, int off, int len) throws IOException {
+            while (len > 0) {
+                if (pos == limit) fill(1);
+                int n = Math.min(len, limit - pos);
+                System.arraycopy(buf, pos, dst, off, n);
+                pos += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /** Garantit au moins n octets disponibles dans le tampon. */
+        private void fill(int n) throws IOException {
+            if (limit - pos >= n) return;
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+            while (limit < n) {
+                int r = in.read(buf, limit, buf.length - limit);
+                if (r < 0) throw new EOFException("Catalogue tronqué");
+                limit += r;
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package sn.uasz.group2.p2p;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression négociée des transferts (GET, GETRANGE, GETHASH).
+ *
+ * Le client préfixe sa commande par "ENC &lt;codec&gt; " ; le serveur répond
+ * "OK &lt;codec&gt;" s'il compresse, ou "OK" s'il envoie les octets bruts
+ * (codec inconnu, format déjà compressé). Le reste de l'en-tête est
+ * inchangé ; seul le contenu est découpé en blocs : taille brute (int),
+ * taille encodée (int, 0 = bloc envoyé brut), octets. Chaque bloc qui ne
+ * gagne rien est envoyé brut, donc un fichier mixte ne coûte presque rien.
+ * Le SHA-256 reste celui des octets d'origine.
+ */
+public final class Compression {
+    /** Taille brute d'un bloc : assez grande pour bien compresser, assez petite pour streamer. */
+    static final int BLOCK_SIZE = 128 * 1024;
+    /** Un bloc qui ne descend pas sous ce ratio est envoyé brut. */
+    private static final double MIN_GAIN_RATIO = 0.95;
+    /** Blocs envoyés bruts sans essai au plus, après une suite de blocs incompressibles. */
+    private static final int MAX_SKIP = 64;
+    /** Blocs compressés en parallèle par transfert (-Dp2p.compression.threads, défaut : min(cœurs, 4)). */
+    private static final int ENCODE_WINDOW = Math.max(1, Integer.getInteger("p2p.compression.threads",
+            Math.min(Runtime.getRuntime().availableProcessors(), 4)));
+    /** Threads de compression partagés par tous les transferts. */
+    private static final ExecutorService ENCODERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "compression");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** Formats déjà compressés : pas la peine d'essayer. */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "rar", "lz4", "jar", "apk", "war",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp", "epub",
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "aac", "ogg", "opus", "flac",
+            "mp4", "mkv", "avi", "mov", "webm", "pdf"));
+
+    private static final Map<String, Codec> codecs = new ConcurrentHashMap<>();
+
+    static {
+        register(new DeflateCodec(Integer.getInteger("p2p.compression.level", 1)));
+    }
+
+    private Compression() {}
+
+    /** Un algorithme de compression ; encodeurs et décodeurs servent pour tout un transfert. */
+    public interface Codec {
+        String name();
+        Encoder newEncoder();
+        Decoder newDecoder();
+    }
+
+    public interface Encoder extends AutoCloseable {
+        /**
+         * Compresse src[0, len) dans dst (de taille len) ; renvoie la taille
+         * encodée, ou -1 si le résultat ne tient pas dans dst.
+         */
+        int encode(byte[] src, int len, byte[] dst);
+        @Override void close();
+    }
+
+    public interface Decoder extends AutoCloseable {
+        /** Décompresse exactement rawLen octets de src[0, encLen) dans dst. */
+        void decode(byte[] src, int encLen, byte[] dst, int rawLen) throws IOException;
+        @Override void close();
+    }
+
+    public static void register(Codec codec) {
+        codecs.put(codec.name(), codec);
+    }
+
+    /** Codec enregistré sous ce nom, ou null. */
+    public static Codec get(String name) {
+        return name == null ? null : codecs.get(name);
+    }
+
+    /** Vrai si le nom de fichier désigne un format déjà compressé. */
+    static boolean isCompressedFormat(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Sonde : compresse le premier bloc de la plage et dit si cela vaut la
+     * peine (un fichier sans extension connue peut être déjà compressé).
+     */
+    static boolean worthCompressing(Codec codec, FileChannel fc, long pos, long count) throws IOException {
+        int len = (int) Math.min(BLOCK_SIZE, count);
+        if (len <= 0) return false;
+        byte[] raw = new byte[len];
+        len = readFully(fc, raw, len, pos);
+        try (Encoder enc = codec.newEncoder()) {
+            int n = enc.encode(raw, len, new byte[len]);
+            return n >= 0 && n < len * MIN_GAIN_RATIO;
+        }
+    }
+
+    /**
+     * Envoie [pos, pos + count) du fichier en blocs encodés ; renvoie le
+     * nombre d'octets écrits. Jusqu'à ENCODE_WINDOW blocs sont compressés en
+     * parallèle (un encodeur par emplacement de la fenêtre), puis écrits
+     * dans l'ordre. Après un bloc incompressible, les suivants partent bruts
+     * sans essai pendant 1, 2, 4... jusqu'à MAX_SKIP blocs, puis on réessaie.
+     */
+    static long writeBlocks(Codec codec, FileChannel fc, long pos, long count, OutputStream out) throws IOException {
+        DataOutputStream dout = new DataOutputStream(out);
+        int window = ENCODE_WINDOW;
+        byte[][] raw = new byte[window][BLOCK_SIZE];
+        byte[][] enc = new byte[window][BLOCK_SIZE];
+        int[] rawLen = new int[window];
+        boolean[] skipped = new boolean[window];
+        List<Future<Integer>> encoded = new ArrayList<>(Collections.nCopies(window, null));
+        Encoder[] encoders = new Encoder[window];
+        long written = 0, next = pos, end = pos + count;
+        int skip = 0, backoff = 1, head = 0, inFlight = 0;
+        try {
+            while (inFlight > 0 || next < end) {
+                while (inFlight < window && next < end) {
+                    int slot = (head + inFlight) % window;
+                    int len = readFully(fc, raw[slot], (int) Math.min(BLOCK_SIZE, end - next), next);
+                    rawLen[slot] = len;
+                    next += len;
+                    skipped[slot] = skip > 0;
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        if (encoders[slot] == null) encoders[slot] = codec.newEncoder();
+                        Encoder e = encoders[slot];
+                        byte[] src = raw[slot], dst = enc[slot];
+                        encoded.set(slot, window == 1 ? CompletableFuture.completedFuture(e.encode(src, len, dst))
+                                                      : ENCODERS.submit(() -> e.encode(src, len, dst)));
+                    }
+                    inFlight++;
+                }
+
+                // le plus ancien bloc part dans l'ordre
+                int len = rawLen[head];
+                int n = -1;
+                if (!skipped[head]) {
+                    n = await(encoded.get(head));
+                    encoded.set(head, null);
+                }
+                boolean stored = n < 0 || n >= len * MIN_GAIN_RATIO;
+                if (!skipped[head]) {
+                    if (stored) {
+                        skip = backoff;
+                        backoff = Math.min(backoff * 2, MAX_SKIP);
+                    } else {
+                        backoff = 1;
+                    }
+                }
+                dout.writeInt(len);
+                dout.writeInt(stored ? 0 : n);
+                if (stored) dout.write(raw[head], 0, len);
+                else dout.write(enc[head], 0, n);
+                written += 8 + (stored ? len : n);
+                head = (head + 1) % window;
+                inFlight--;
+            }
+        } finally {
+            // un encodeur ne se libère qu'une fois sa tâche terminée (erreur d'écriture en cours de route)
+            for (int i = 0; i < window; i++) {
+                if (encoders[i] == null) continue;
+                if (encoded.get(i) != null) {
+                    try {
+                        await(encoded.get(i));
+                    } catch (IOException ignore) {
+                        // on libère quand même
+                    }
+                }
+                encoders[i].close();
+            }
+        }
+        return written;
+    }
+
+    private static int await(Future<Integer> f) throws IOException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Compression impossible: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compression interrompue");
+        }
+    }
+
+    private static int readFully(FileChannel fc, byte[] dst, int len, long pos) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(dst, 0, len);
+        while (b.hasRemaining()) {
+            int n = fc.read(b, pos + b.position());
+            if (n < 0) throw new EOFException("Fichier tronqué pendant l'envoi");
+        }
+        return len;
+    }
+
+    /**
+     * Côté client : relit les blocs de {@link #writeBlocks} et rend les
+     * {@code rawCount} octets d'origine. Compte les octets reçus pour le ratio.
+     */
+    static final class BlockInputStream extends InputStream {
+        private final DataInputStream in;
+        private final Decoder decoder;
+        private long rawRemaining;
+        private long wireBytes;
+        private byte[] block = new byte[0];
+        private byte[] encoded = new byte[0];
+        private int blockPos, blockLen;
+
+        BlockInputStream(DataInputStream in, Codec codec, long rawCount) {
+            this.in = in;
+            this.decoder = codec.newDecoder();
+            this.rawRemaining = rawCount;
+        }
+
+        private boolean fill() throws IOException {
+            if (blockPos < blockLen) return true;
+            if (rawRemaining <= 0) return false;
+            int rawLen = in.readInt();
+            int encLen = in.readInt();
+            if (rawLen <= 0 || rawLen > rawRemaining || rawLen > BLOCK_SIZE || encLen < 0 || encLen > rawLen) {
+                throw new IOException("Bloc compressé invalide: " + rawLen + "/" + encLen);
+            }
+            if (block.length < rawLen) block = new byte[BLOCK_SIZE];
+            if (encLen == 0) {
+                in.readFully(block, 0, rawLen);
+            } else {
+                if (encoded.length < encLen) encoded = new byte[BLOCK_SIZE];
+                in.readFully(encoded, 0, encLen);
+                decoder.decode(encoded, encLen, block, rawLen);
+            }
+            wireBytes += 8 + (encLen == 0 ? rawLen : encLen);
+            rawRemaining -= rawLen;
+            blockPos = 0;
+            blockLen = rawLen;
+            return true;
+        }
+
+        @Override public int read() throws IOException {
+            return fill() ? block[blockPos++] & 0xff : -1;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, blockLen - blockPos);
+            System.arraycopy(block, blockPos, b, off, n);
+            blockPos += n;
+            return n;
+        }
+
+        /** Octets effectivement reçus (en-têtes de blocs compris). */
+        long getWireBytes() { return wireBytes; }
+
+        @Override public void close() {
+            decoder.close();
+        }
+    }
+
+    /** Deflate (zlib, sans en-tête) ; niveau 1 par défaut : le débit compte plus que le dernier %. */
+    static final class DeflateCodec implements Codec {
+        private final int level;
+
+        DeflateCodec(int level) {
+            this.level = level;
+        }
+
+        @Override public String name() { return "deflate"; }
+
+        @Override public Encoder newEncoder() {
+            Deflater deflater = new Deflater(level, true);
+            return new Encoder() {
+                @Override public int encode(byte[] src, int len, byte[] dst) {
+                    deflater.reset();
+                    deflater.setInput(src, 0, len);
+                    deflater.finish();
+                    int n = 0;
+                    while (!deflater.finished()) {
+                        if (n == dst.length) return -1;
+                        n += deflater.deflate(dst, n, dst.length - n);
+                    }
+                    return n;
+                }
+
+                @Override public void close() {
+                    deflater.end();
+                }
+            };
+        }
+
+        @Override public Decoder newDecoder() {
+            Inflater inflater = new Inflater(true);
+            return new Decoder() {
+                @Override public void decode(byte[] src, int encLen, byte[] dst, int rawLen) throws IOException {
+                    inflater.reset();
+                    inflater.setInput(src, 0, encLen);
+                    try {
+                        int n = 0;
+                        while (n < rawLen && !inflater.finished()) {
+                            int k = inflater.inflate(dst, n, rawLen - n);
+                            if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                            n += k;
+                        }
+                        if (n != rawLen || !inflater.finished()) throw new IOException("Bloc deflate tronqué");
+                    } catch (DataFormatException e) {
+                        throw new IOException("Bloc deflate invalide: " + e.getMessage(), e);
+                    }
+                }
+
+                @Override public void close() {
+                    inflater.end();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package sn.uasz.group2.p2p;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Résumé du contenu partagé par un pair : un {@link BloomFilter} des SHA-256,
+ * des trigrammes des noms de base et des extensions, soit exactement ce que
+ * {@link SearchIndex} exige d'un fichier pour qu'il puisse répondre. Un
+ * client peut donc écarter sans connexion un pair dont le résumé dit
+ * "certainement absent" ({@link #mightMatch}) ; un faux positif (1 % visé)
+ * coûte seulement la connexion qu'on aurait faite sans résumé.
+ *
+ * Les mots de moins de 3 caractères, in:, min: et max: ne sont pas résumés :
+ * ils ne permettent pas d'écarter un pair.
+ */
+public final class ContentSummary {
+    private static final int FORMAT = 1;
+    private static final double FPP = 0.01;
+
+    private final BloomFilter filter;
+
+    private ContentSummary(BloomFilter filter) {
+        this.filter = filter;
+    }
+
+    /** Résumé d'un catalogue ; entries ne doit pas changer pendant l'appel (copie de l'index). */
+    public static ContentSummary build(Collection<FileMetadata> entries) {
+        Set<Long> grams = new HashSet<>();
+        Set<String> exts = new HashSet<>();
+        for (FileMetadata fm : entries) {
+            String name = fm.getName();
+            SearchIndex.forEachTrigram(name, grams::add);
+            String ext = SearchIndex.extensionOf(name, SearchIndex.baseStart(name));
+            if (ext != null) exts.add(ext);
+        }
+        BloomFilter f = BloomFilter.create(entries.size() + grams.size() + exts.size(), FPP);
+        for (FileMetadata fm : entries) addSha(f, fm.sha256());
+        for (long g : grams) f.add(BloomFilter.mix64(g), BloomFilter.mix64(g + 0x9e3779b97f4a7c15L));
+        for (String e : exts) addExt(f, e);
+        return new ContentSummary(f);
+    }
+
+    public boolean mightContainSha256(String sha256Hex) {
+        return mightContainSha256(CryptoUtils.hexToBytes(sha256Hex));
+    }
+
+    public boolean mightContainSha256(byte[] sha256) {
+        return filter.mightContain(shaH1(sha256), shaH2(sha256));
+    }
+
+    /** Faux : aucun fichier de ce pair ne peut satisfaire la requête. */
+    public boolean mightMatch(SearchIndex.Query q) {
+        if (q.sha != null && !mightContainSha256(q.sha)) return false;
+        if (q.ext != null && !filter.mightContain(extH1(q.ext), extH2(q.ext))) return false;
+        for (String t : q.terms) if (!mightContainTrigrams(t)) return false;
+        return q.prefix == null || mightContainTrigrams(q.prefix);
+    }
+
+    private boolean mightContainTrigrams(String term) {
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            long g = SearchIndex.key(term.charAt(i), term.charAt(i + 1), term.charAt(i + 2));
+            if (!filter.mightContain(BloomFilter.mix64(g), BloomFilter.mix64(g + 0x9e3779b97f4a7c15L))) return false;
+        }
+        return true;
+    }
+
+    /** Taille encodée en octets (choix entre balise et commande SUMMARY). */
+    public int encodedSize() {
+        return 1 + 5 + (int) (filter.getBitSize() / 8);
+    }
+
+    public BloomFilter getFilter() { return filter; }
+
+    public byte[] encode() {
+        byte[] f = filter.toBytes();
+        byte[] out = new byte[1 + f.length];
+        out[0] = FORMAT;
+        System.arraycopy(f, 0, out, 1, f.length);
+        return out;
+    }
+
+    public static ContentSummary decode(byte[] data) throws IOException {
+        if (data.length < 1 || data[0] != FORMAT) throw new IOException("Résumé de contenu: format inconnu");
+        return new ContentSummary(BloomFilter.fromBytes(Arrays.copyOfRange(data, 1, data.length)));
+    }
+
+    private static void addSha(BloomFilter f, byte[] sha256) {
+        f.add(shaH1(sha256), shaH2(sha256));
+    }
+
+    private static void addExt(BloomFilter f, String ext) {
+        f.add(extH1(ext), extH2(ext));
+    }
+
+    // Les octets d'un SHA-256 sont déjà uniformes : deux mots de 64 bits suffisent
+    private static long shaH1(byte[] s) {
+        return longAt(s, 0);
+    }
+
+    private static long shaH2(byte[] s) {
+        return longAt(s, 8) | 1;
+    }
+
+    private static long extH1(String ext) {
+        return BloomFilter.hash64("ext:" + ext);
+    }
+
+    private static long extH2(String ext) {
+        return BloomFilter.mix64(extH1(ext) ^ 0x5851f42d4c957f2dL);
+    }
+
+    private static long longAt(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (b[off + i] & 0xff);
+        return v;
+    }
+}
@@ -1,48 +1,203 @@
 package sn.uasz.group2.p2p;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
-import java.security.DigestInputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
 
+/**
+ * Empreintes de fichiers et conversions hex.
+ *
+ * Les fichiers sont lus par FileChannel dans un tampon direct de 1 Mio
+ * réutilisé par thread, avec un MessageDigest lui aussi réutilisé par
+ * thread : hasher un petit fichier n'alloue presque rien, un gros fichier
+ * est lu en peu d'appels système. La CRC32C (instruction matérielle sur
+ * x86 et ARM) sert de pré-contrôle bon marché, voir {@link HashCache}.
+ */
 public final class CryptoUtils {
     private CryptoUtils() {}
 
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(CryptoUtils::newSha256);
+    /** Digest des blocs (feuilles de Merkle), distinct de celui du fichier entier. */
+    private static final ThreadLocal<MessageDigest> CHUNK_SHA256 = ThreadLocal.withInitial(CryptoUtils::newSha256);
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** SHA-256, CRC32C et SHA-256 par bloc d'un fichier, calculés dans la même lecture. */
+    public static final class FileDigest {
+        public final byte[] sha256;
+        public final int crc32c;
+        /** SHA-256 de chaque bloc (feuilles de {@link MerkleTree}), null si non demandés. */
+        public final byte[][] chunkSha256;
+
+        FileDigest(byte[] sha256, int crc32c, byte[][] chunkSha256) {
+            this.sha256 = sha256;
+            this.crc32c = crc32c;
+            this.chunkSha256 = chunkSha256;
+        }
+
+        public String sha256Hex() { return bytesToHex(sha256); }
+    }
+
     /** SHA-256 en hex (compatible Java 11) */
     public static String sha256Hex(File f) throws IOException {
-        try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            try (DigestInputStream dis = new DigestInputStream(in, md)) {
-                byte[] buf = new byte[8192];
-                while (dis.read(buf) != -1) { /* read all */ }
-            }
-            return bytesToHex(md.digest());
-        } catch (Exception e) {
-            throw new IOException("SHA-256 error: " + e.getMessage(), e);
-        }
+        return bytesToHex(sha256Bytes(f));
     }
 
     /** SHA-256 brut (32 octets) */
     public static byte[] sha256Bytes(File f) throws IOException {
-        try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] buf = new byte[8192];
-            int n;
-            while ((n = in.read(buf)) != -1) md.update(buf, 0, n);
-            return md.digest();
-        } catch (Exception e) {
+        return digest(f, null, 0).sha256;
+    }
+
+    /** SHA-256 et CRC32C en une seule lecture du fichier. */
+    public static FileDigest sha256WithCrc32c(File f) throws IOException {
+        return digest(f, new CRC32C(), 0);
+    }
+
+    /**
+     * SHA-256 du fichier et de chacun de ses blocs de {@code chunkSize}
+     * octets (plus la CRC32C si {@code withCrc32c}) en une seule lecture.
+     * Un fichier d'un seul bloc n'est hashé qu'une fois : sa feuille est
+     * son SHA-256.
+     */
+    public static FileDigest sha256WithChunks(File f, int chunkSize, boolean withCrc32c) throws IOException {
+        return digest(f, withCrc32c ? new CRC32C() : null, chunkSize);
+    }
+
+    /** CRC32C seule : plusieurs fois plus rapide que SHA-256, pour vérifier qu'un contenu n'a pas changé. */
+    public static int crc32c(File f) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buf = BUFFER.get();
+        try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            while (true) {
+                buf.clear();
+                if (fc.read(buf) < 0) break;
+                buf.flip();
+                crc.update(buf);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    private static FileDigest digest(File f, CRC32C crc, int chunkSize) throws IOException {
+        MessageDigest md = SHA256.get();
+        md.reset(); // un calcul interrompu par une exception a pu laisser un état
+        ByteBuffer buf = BUFFER.get();
+        MessageDigest chunkMd = null;
+        List<byte[]> chunks = null;
+        long total = 0, inChunk = 0;
+        try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            if (chunkSize > 0 && fc.size() > chunkSize) {
+                chunkMd = CHUNK_SHA256.get();
+                chunkMd.reset();
+                chunks = new ArrayList<>((int) ((fc.size() + chunkSize - 1) / chunkSize));
+            }
+            while (true) {
+                buf.clear();
+                if (fc.read(buf) < 0) break;
+                buf.flip();
+                total += buf.remaining();
+                if (crc != null) {
+                    crc.update(buf);
+                    buf.rewind();
+                }
+                if (chunkMd != null) {
+                    int end = buf.limit();
+                    while (buf.position() < end) {
+                        buf.limit(buf.position() + (int) Math.min(end - buf.position(), chunkSize - inChunk));
+                        inChunk += buf.remaining();
+                        chunkMd.update(buf);
+                        buf.limit(end);
+                        if (inChunk == chunkSize) {
+                            chunks.add(chunkMd.digest());
+                            inChunk = 0;
+                        }
+                    }
+                    buf.rewind();
+                }
+                md.update(buf);
+            }
+        } catch (IOException e) {
             throw new IOException("SHA-256 error: " + e.getMessage(), e);
         }
+        byte[] sha = md.digest();
+        byte[][] leaves = null;
+        if (chunks != null) {
+            if (inChunk > 0) chunks.add(chunkMd.digest());
+            leaves = chunks.toArray(new byte[0][]);
+        } else if (chunkSize > 0 && total <= chunkSize) {
+            leaves = total == 0 ? new byte[0][] : new byte[][] { sha };
+        } // sinon : fichier agrandi pendant la lecture, feuilles inconnues
+        return new FileDigest(sha, crc == null ? 0 : (int) crc.getValue(), leaves);
     }
 
     /** Utilitaire hex (Java 11) */
     public static String bytesToHex(byte[] bytes) {
-        final char[] HEX = "0123456789ABCDEF".toCharArray();
-        char[] out = new char[bytes.length * 2];
-        for (int i = 0, j = 0; i < bytes.length; i++) {
-            int v = bytes[i] & 0xFF;
-            out[j++] = HEX[v >>> 4];
-            out[j++] = HEX[v & 0x0F];
+        return bytesToHex(bytes, 0, bytes.length);
+    }
+
+    /** Variante sur une portion de tableau (évite une copie intermédiaire) */
+    public static String bytesToHex(byte[] bytes, int off, int len) {
+        byte[] out = new byte[len * 2];
+        bytesToHex(bytes, off, len, out, 0);
+        return new String(out, StandardCharsets.ISO_8859_1); // Latin-1 : chaîne compacte, sans transcodage
+    }
+
+    /** Écrit 2 * len caractères hex ASCII dans dst[dstOff..], sans allocation. */
+    public static void bytesToHex(byte[] bytes, int off, int len, byte[] dst, int dstOff) {
+        for (int i = 0, j = dstOff; i < len; i++) {
+            int v = bytes[off + i] & 0xFF;
+            dst[j++] = HEX[v >>> 4];
+            dst[j++] = HEX[v & 0x0F];
+        }
+    }
+
+    /** Inverse de bytesToHex */
+    public static byte[] hexToBytes(String hex) {
+        if ((hex.length() & 1) != 0) throw new IllegalArgumentException("Hex de longueur impaire: " + hex);
+        byte[] out = new byte[hex.length() / 2];
+        hexToBytes(hex, out, 0);
+        return out;
+    }
+
+    /** Décode hex dans dst[off..] sans allocation */
+    public static void hexToBytes(String hex, byte[] dst, int off) {
+        int n = hex.length() / 2;
+        int bad = 0;
+        for (int i = 0; i < n; i++) {
+            char c1 = hex.charAt(2 * i), c2 = hex.charAt(2 * i + 1);
+            int hi = c1 < 128 ? HEX_VALUES[c1] : -1;
+            int lo = c2 < 128 ? HEX_VALUES[c2] : -1;
+            bad |= hi | lo;
+            dst[off + i] = (byte) ((hi << 4) | lo);
+        }
+        if (bad < 0) throw new IllegalArgumentException("Hex invalide: " + hex);
+    }
+
+    private static final byte[] HEX_VALUES = new byte[128];
+    static {
+        java.util.Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) HEX_VALUES['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+            HEX_VALUES['a' + i] = (byte) (10 + i);
         }
-        return new String(out);
     }
 }
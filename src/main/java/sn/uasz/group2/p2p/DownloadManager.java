@@ -0,0 +1,305 @@
+package sn.uasz.group2.p2p;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * File de téléchargements : un nombre borné de workers (-Dp2p.downloads.workers,
+ * 4 par défaut) prend les téléchargements par priorité puis par ordre
+ * d'arrivée, avec au plus -Dp2p.downloads.perPeer (2) téléchargements
+ * simultanés par pair. Un échec réseau est retenté avec un délai croissant
+ * (1 s, 2 s, 4 s... plus un peu d'aléa) ; un téléchargement peut être mis
+ * en pause, repris ou annulé à tout moment. En pause ou annulé, le worker
+ * est interrompu : le .part reste en place et la reprise repart de là.
+ *
+ * Indépendant de Swing : l'interface suit l'avancement via {@link Listener}.
+ */
+public class DownloadManager implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(DownloadManager.class.getName());
+
+    private static final long BASE_RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 60_000;
+
+    public enum Priority { HIGH, NORMAL, LOW }
+
+    public enum State { QUEUED, RUNNING, PAUSED, DONE, FAILED, CANCELLED }
+
+    /** Le travail d'un téléchargement ; doit réagir à l'interruption du thread. */
+    public interface Job {
+        Path run() throws IOException;
+    }
+
+    /** Changements d'état, appelés depuis les workers (hors verrou). */
+    public interface Listener {
+        void onChange(Download d);
+    }
+
+    public final class Download {
+        private final long id;
+        private final String label;
+        private final String peerKey;
+        private final Job job;
+        private volatile Priority priority;
+        private volatile State state = State.QUEUED;
+        private volatile int attempts;
+        private volatile Path result;
+        private volatile String error;
+        private long notBefore;
+        private Thread worker;
+
+        private Download(long id, String label, String peerKey, Priority priority, Job job) {
+            this.id = id;
+            this.label = label;
+            this.peerKey = peerKey;
+            this.priority = priority;
+            this.job = job;
+        }
+
+        public long getId() { return id; }
+        public String getLabel() { return label; }
+        /** Pair limitant (ex. "hôte:port"), ou null pour un téléchargement multi-sources. */
+        public String getPeerKey() { return peerKey; }
+        public Priority getPriority() { return priority; }
+        public State getState() { return state; }
+        public int getAttempts() { return attempts; }
+        public Path getResult() { return result; }
+        public String getError() { return error; }
+
+        public boolean isFinished() {
+            return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+        }
+
+        @Override public String toString() {
+            String s = label + " — " + state;
+            if (state == State.QUEUED && attempts > 0) s += " (essai " + (attempts + 1) + "/" + maxAttempts + ")";
+            if (state == State.FAILED && error != null) s += " : " + error;
+            return s;
+        }
+    }
+
+    private final int maxAttempts;
+    private final Object lock = new Object();
+    /** En file (y compris en attente de retry) ; la sélection parcourt la liste, petite en pratique. */
+    private final List<Download> queue = new ArrayList<>();
+    private final List<Download> running = new ArrayList<>();
+    private final Map<String, Integer> runningPerPeer = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private int maxPerPeer;
+    private long nextId;
+    private boolean closed;
+
+    public DownloadManager() {
+        this(Integer.getInteger("p2p.downloads.workers", 4), Integer.getInteger("p2p.downloads.perPeer", 2), 4);
+    }
+
+    public DownloadManager(int workerCount, int maxPerPeer, int maxAttempts) {
+        this.maxPerPeer = Math.max(1, maxPerPeer);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        AtomicInteger seq = new AtomicInteger();
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            Thread t = new Thread(this::workerLoop, "download-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    /** Met un téléchargement en file ; {@code peerKey} null = pas de limite par pair. */
+    public Download submit(String label, String peerKey, Priority priority, Job job) {
+        Download d;
+        synchronized (lock) {
+            if (closed) throw new IllegalStateException("Gestionnaire de téléchargements fermé");
+            d = new Download(nextId++, label, peerKey, priority, job);
+            queue.add(d);
+            lock.notifyAll();
+        }
+        fire(d);
+        return d;
+    }
+
+    /** Met en pause : retiré de la file, ou interrompu s'il est en cours. */
+    public void pause(Download d) {
+        if (transition(d, State.PAUSED)) fire(d);
+    }
+
+    /** Remet en file un téléchargement en pause ou échoué (compteur d'essais remis à zéro). */
+    public void resume(Download d) {
+        synchronized (lock) {
+            if (d.state != State.PAUSED && d.state != State.FAILED) return;
+            d.state = State.QUEUED;
+            d.attempts = 0;
+            d.error = null;
+            d.notBefore = 0;
+            queue.add(d);
+            lock.notifyAll();
+        }
+        fire(d);
+    }
+
+    public void cancel(Download d) {
+        if (transition(d, State.CANCELLED)) fire(d);
+    }
+
+    public void setPriority(Download d, Priority priority) {
+        synchronized (lock) {
+            d.priority = priority;
+            lock.notifyAll();
+        }
+        fire(d);
+    }
+
+    /** Limite de téléchargements simultanés par pair, modifiable à chaud. */
+    public void setMaxPerPeer(int max) {
+        synchronized (lock) {
+            maxPerPeer = Math.max(1, max);
+            lock.notifyAll();
+        }
+    }
+
+    /** Téléchargements en file ou en cours. */
+    public List<Download> pending() {
+        synchronized (lock) {
+            List<Download> out = new ArrayList<>(queue);
+            for (Download d : running) if (!out.contains(d)) out.add(d);
+            return out;
+        }
+    }
+
+    /** Vers PAUSED ou CANCELLED, depuis la file ou en cours (le worker est interrompu). */
+    private boolean transition(Download d, State target) {
+        synchronized (lock) {
+            if (d.isFinished() || d.state == target) return false;
+            if (d.state == State.PAUSED && target == State.CANCELLED) {
+                d.state = target;
+                return true;
+            }
+            queue.remove(d);
+            if (d.worker != null) d.worker.interrupt();
+            d.state = target;
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    private void workerLoop() {
+        while (true) {
+            Download d;
+            try {
+                d = take();
+            } catch (InterruptedException e) {
+                return; // fermeture
+            }
+            if (d == null) return;
+            fire(d);
+            Path path = null;
+            IOException failure = null;
+            try {
+                path = d.job.run();
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e.toString(), e);
+            }
+            Thread.interrupted(); // une pause arrivée après la fin du travail ne concerne pas la suite
+            finish(d, path, failure);
+            fire(d);
+        }
+    }
+
+    /** Prochain téléchargement éligible : priorité, puis ancienneté, pair non saturé, délai de retry écoulé. */
+    private Download take() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                if (closed) return null;
+                long now = System.currentTimeMillis();
+                Download best = null;
+                long wake = Long.MAX_VALUE;
+                for (Download d : queue) {
+                    if (d.worker != null) continue; // repris avant la fin de l'essai interrompu
+                    if (d.peerKey != null && runningPerPeer.getOrDefault(d.peerKey, 0) >= maxPerPeer) continue;
+                    if (d.notBefore > now) {
+                        wake = Math.min(wake, d.notBefore);
+                        continue;
+                    }
+                    if (best == null || d.priority.ordinal() < best.priority.ordinal()
+                            || (d.priority == best.priority && d.id < best.id)) {
+                        best = d;
+                    }
+                }
+                if (best != null) {
+                    queue.remove(best);
+                    running.add(best);
+                    best.state = State.RUNNING;
+                    best.worker = Thread.currentThread();
+                    if (best.peerKey != null) runningPerPeer.merge(best.peerKey, 1, Integer::sum);
+                    return best;
+                }
+                if (wake == Long.MAX_VALUE) lock.wait();
+                else lock.wait(Math.max(1, wake - now));
+            }
+        }
+    }
+
+    private void finish(Download d, Path path, IOException failure) {
+        synchronized (lock) {
+            running.remove(d);
+            d.worker = null;
+            if (d.peerKey != null) runningPerPeer.computeIfPresent(d.peerKey, (k, n) -> n == 1 ? null : n - 1);
+            lock.notifyAll();
+            if (d.state != State.RUNNING) return; // mis en pause ou annulé pendant l'exécution
+            if (failure == null) {
+                d.result = path;
+                d.state = State.DONE;
+                return;
+            }
+            d.attempts++;
+            d.error = failure.getMessage();
+            if (d.attempts >= maxAttempts || closed) {
+                d.state = State.FAILED;
+                log.warning("Téléchargement abandonné après " + d.attempts + " essai(s): " + d.label + " (" + d.error + ")");
+                return;
+            }
+            long delay = Math.min(MAX_RETRY_DELAY_MS, BASE_RETRY_DELAY_MS << (d.attempts - 1));
+            delay += ThreadLocalRandom.current().nextLong(delay / 4 + 1); // évite les retries synchronisés
+            d.notBefore = System.currentTimeMillis() + delay;
+            d.state = State.QUEUED;
+            queue.add(d);
+            log.info("Nouvel essai dans " + delay + " ms: " + d.label + " (" + d.error + ")");
+        }
+    }
+
+    private void fire(Download d) {
+        for (Listener l : listeners) {
+            try {
+                l.onChange(d);
+            } catch (RuntimeException e) {
+                log.warning("Listener de téléchargement: " + e);
+            }
+        }
+    }
+
+    /** Arrête les workers ; les téléchargements en cours sont interrompus (leur .part reste). */
+    @Override public void close() {
+        synchronized (lock) {
+            closed = true;
+            for (Download d : running) d.state = State.PAUSED;
+            for (Download d : queue) d.state = State.PAUSED;
+            queue.clear();
+            lock.notifyAll();
+        }
+        for (Thread t : workers) t.interrupt();
+    }
+}
@@ -2,26 +2,49 @@
 package sn.uasz.group2.p2p;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
-/** Métadonnées d'un fichier partagé. */
+/**
+ * Métadonnées d'un fichier partagé. Le nom est le chemin relatif à la racine
+ * du partage, séparé par '/'. Le SHA-256 est gardé brut (32 octets) : l'index
+ * peut en contenir des millions.
+ */
 public class FileMetadata implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     private final String name;
     private final long size;
-    private final String sha256Hex;
+    private final byte[] sha256;
     private final long lastModified;
 
     public FileMetadata(String name, long size, String sha256Hex, long lastModified) {
+        this(name, size, CryptoUtils.hexToBytes(sha256Hex), lastModified);
+    }
+
+    public FileMetadata(String name, long size, byte[] sha256, long lastModified) {
+        if (sha256.length != 32) throw new IllegalArgumentException("SHA-256 invalide: " + sha256.length + " octets");
         this.name = name;
         this.size = size;
-        this.sha256Hex = sha256Hex;
+        this.sha256 = sha256;
         this.lastModified = lastModified;
     }
     public String getName() { return name; }
     public long getSize() { return size; }
-    public String getSha256Hex() { return sha256Hex; }
+    public String getSha256Hex() { return CryptoUtils.bytesToHex(sha256); }
     public long getLastModified() { return lastModified; }
 
+    /** SHA-256 brut, sans copie : ne pas modifier (sert de clé dans l'index par contenu). */
+    byte[] sha256() { return sha256; }
+
+    /** Copie le SHA-256 brut dans dst[off .. off + 32). */
+    public void copySha256To(byte[] dst, int off) {
+        System.arraycopy(sha256, 0, dst, off, 32);
+    }
+
+    /** Vrai si les deux fichiers ont le même contenu (même SHA-256). */
+    public boolean sameSha256(FileMetadata other) {
+        return Arrays.equals(sha256, other.sha256);
+    }
+
     @Override public String toString() {
         return String.format("%s (%d bytes)", name, size);
     }
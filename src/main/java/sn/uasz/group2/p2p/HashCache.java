@@ -0,0 +1,265 @@
+package sn.uasz.group2.p2p;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Cache persistant des SHA-256 d'un dossier partagé.
+ * Une entrée est réutilisée tant que (nom, taille, date de modif, fileKey) n'a pas bougé,
+ * ce qui évite de re-hasher tout le partage à chaque démarrage.
+ *
+ * Pré-contrôle optionnel (-Dp2p.hash.precheck=crc32c) : chaque entrée garde
+ * aussi la CRC32C du contenu, calculée dans la même lecture que le SHA-256.
+ * Quand seule la date ou le fileKey a changé (touch, copie, restauration
+ * de sauvegarde, partage déplacé sur un autre disque), une CRC32C
+ * identique suffit à reprendre le SHA-256 en cache sans le recalculer.
+ *
+ * Les fichiers hashés par {@link #hash(String, BasicFileAttributes, File, int)}
+ * gardent aussi le SHA-256 de chaque bloc (feuilles de {@link MerkleTree}),
+ * calculé dans la même lecture : CHUNKS ne relit pas le fichier.
+ */
+public class HashCache {
+    private static final Logger log = Logger.getLogger(HashCache.class.getName());
+    private static final int MAGIC = 0x50325048; // "P2PH"
+    /** v4 : + SHA-256 par bloc ; v3 : + CRC32C ; v2 : SHA-256 brut (v1 : hexadécimal ; tous encore lus). */
+    private static final int VERSION = 4;
+    private static final boolean PRECHECK = "crc32c".equalsIgnoreCase(System.getProperty("p2p.hash.precheck", "off"));
+    private static final int MAX_CHUNKS = 1 << 24;
+    private static final Metrics.Counter PRECHECK_HITS = Metrics.global().counter("index.precheck.hits");
+    private static final Metrics.Counter PRECHECK_MISSES = Metrics.global().counter("index.precheck.misses");
+
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean dirty;
+
+    private static final class Entry {
+        final long size;
+        final long lastModified;
+        final String fileKey;
+        final byte[] sha256;
+        final boolean hasCrc;
+        final int crc32c;
+        /** Taille de bloc des feuilles (0 : pas de feuilles). */
+        final int chunkSize;
+        final byte[][] chunks;
+
+        Entry(long size, long lastModified, String fileKey, byte[] sha256, boolean hasCrc, int crc32c,
+              int chunkSize, byte[][] chunks) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.sha256 = sha256;
+            this.hasCrc = hasCrc;
+            this.crc32c = crc32c;
+            this.chunkSize = chunks == null ? 0 : chunkSize;
+            this.chunks = chunks;
+        }
+    }
+
+    public HashCache(Path file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Emplacement par défaut : ~/.p2p-fileshare/ (ou -Dp2p.cacheDir),
+     * un fichier par dossier partagé pour ne pas polluer le partage lui-même.
+     */
+    public static HashCache forShare(Path root) {
+        String dir = System.getProperty("p2p.cacheDir",
+                Paths.get(System.getProperty("user.home"), ".p2p-fileshare").toString());
+        String id = root.toAbsolutePath().normalize().toString();
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            id = CryptoUtils.bytesToHex(md.digest(id.getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+        } catch (Exception ignore) {}
+        return new HashCache(Paths.get(dir, "hashes-" + id + ".bin"));
+    }
+
+    /** SHA-256 en cache si la clé du fichier n'a pas changé, sinon null. */
+    public synchronized String lookup(String name, BasicFileAttributes attrs) {
+        Entry e = entries.get(name);
+        if (e == null) return null;
+        if (e.size != attrs.size() || e.lastModified != attrs.lastModifiedTime().toMillis()) return null;
+        if (!Objects.equals(e.fileKey, fileKeyOf(attrs))) return null;
+        return CryptoUtils.bytesToHex(e.sha256);
+    }
+
+    public synchronized void put(String name, BasicFileAttributes attrs, String sha256Hex) {
+        put(name, attrs, CryptoUtils.hexToBytes(sha256Hex), false, 0, 0, null);
+    }
+
+    private synchronized void put(String name, BasicFileAttributes attrs, byte[] sha256, boolean hasCrc, int crc32c,
+                                  int chunkSize, byte[][] chunks) {
+        entries.put(name, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKeyOf(attrs), sha256,
+                hasCrc, crc32c, chunkSize, chunks));
+        dirty = true;
+    }
+
+    /**
+     * SHA-256 des blocs de {@code chunkSize} octets du contenu {@code sha256Hex}
+     * de taille {@code size} enregistré sous {@code name}, ou null s'ils ne
+     * sont pas en cache (entrée d'un ancien format, contenu différent).
+     */
+    public synchronized byte[][] chunkHashes(String name, String sha256Hex, long size, int chunkSize) {
+        Entry e = entries.get(name);
+        if (e == null || e.chunks == null || e.chunkSize != chunkSize || e.size != size) return null;
+        if (e.chunks.length != (int) ((size + chunkSize - 1) / chunkSize)) return null;
+        if (!Arrays.equals(e.sha256, CryptoUtils.hexToBytes(sha256Hex))) return null;
+        return e.chunks;
+    }
+
+    /** Complète l'entrée de {@code name} avec des feuilles calculées à part (entrée d'un ancien format). */
+    public synchronized void putChunkHashes(String name, String sha256Hex, int chunkSize, byte[][] chunks) {
+        Entry e = entries.get(name);
+        if (e == null || e.chunks != null || !Arrays.equals(e.sha256, CryptoUtils.hexToBytes(sha256Hex))) return;
+        entries.put(name, new Entry(e.size, e.lastModified, e.fileKey, e.sha256, e.hasCrc, e.crc32c, chunkSize, chunks));
+        dirty = true;
+    }
+
+    /**
+     * SHA-256 de {@code f} (hors verrou), mis en cache sous {@code name}.
+     * Avec le pré-contrôle, une entrée de même taille dont la CRC32C n'a pas
+     * bougé est reprise telle quelle ; sinon le fichier est relu pour le
+     * SHA-256 (au pire une lecture CRC32C de trop, plusieurs fois plus
+     * rapide que le SHA-256).
+     */
+    public String hash(String name, BasicFileAttributes attrs, File f) throws IOException {
+        return hash(name, attrs, f, 0);
+    }
+
+    /**
+     * Comme {@link #hash(String, BasicFileAttributes, File)}, en gardant aussi
+     * le SHA-256 de chaque bloc de {@code chunkSize} octets (0 : aucun),
+     * voir {@link #chunkHashes}. Seuls les fichiers de plus d'un bloc
+     * coûtent un second SHA-256 ; la lecture reste unique.
+     */
+    public String hash(String name, BasicFileAttributes attrs, File f, int chunkSize) throws IOException {
+        if (PRECHECK) {
+            Entry old;
+            synchronized (this) {
+                old = entries.get(name);
+            }
+            if (old != null && old.hasCrc && old.size == attrs.size()) {
+                int crc = CryptoUtils.crc32c(f);
+                if (crc == old.crc32c) {
+                    PRECHECK_HITS.inc();
+                    put(name, attrs, old.sha256, true, crc, old.chunkSize, old.chunks);
+                    return CryptoUtils.bytesToHex(old.sha256);
+                }
+                PRECHECK_MISSES.inc();
+            }
+        }
+        CryptoUtils.FileDigest d = CryptoUtils.sha256WithChunks(f, chunkSize, PRECHECK);
+        put(name, attrs, d.sha256, PRECHECK, d.crc32c, chunkSize, d.chunkSha256);
+        return d.sha256Hex();
+    }
+
+    public synchronized void remove(String name) {
+        if (entries.remove(name) != null) dirty = true;
+    }
+
+    /** Oublie les fichiers qui ne sont plus dans le partage. */
+    public synchronized void retainOnly(Set<String> names) {
+        if (entries.keySet().retainAll(names)) dirty = true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Écrit le cache (fichier temporaire puis renommage atomique) s'il a changé. */
+    public synchronized void save() {
+        if (!dirty) return;
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                    Entry e = me.getValue();
+                    out.writeUTF(me.getKey());
+                    out.writeLong(e.size);
+                    out.writeLong(e.lastModified);
+                    out.writeUTF(e.fileKey == null ? "" : e.fileKey);
+                    out.write(e.sha256);
+                    out.writeBoolean(e.hasCrc);
+                    out.writeInt(e.crc32c);
+                    out.writeInt(e.chunkSize);
+                    if (e.chunks != null) {
+                        out.writeInt(e.chunks.length);
+                        for (byte[] c : e.chunks) out.write(c);
+                    }
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            log.warning("Impossible d'écrire le cache de hash " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(file)) return;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version < 1 || version > VERSION) {
+                log.info("Cache de hash ignoré (format inconnu): " + file);
+                return;
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String fileKey = in.readUTF();
+                byte[] sha;
+                if (version == 1) {
+                    sha = CryptoUtils.hexToBytes(in.readUTF());
+                } else {
+                    sha = new byte[32];
+                    in.readFully(sha);
+                }
+                boolean hasCrc = version >= 3 && in.readBoolean();
+                int crc = version >= 3 ? in.readInt() : 0;
+                int chunkSize = version >= 4 ? in.readInt() : 0;
+                byte[][] chunks = null;
+                if (chunkSize > 0) {
+                    int count = in.readInt();
+                    if (count < 0 || count > MAX_CHUNKS) throw new IOException("Nombre de blocs invalide: " + count);
+                    chunks = new byte[count][32];
+                    for (byte[] c : chunks) in.readFully(c);
+                }
+                entries.put(name, new Entry(size, lastModified, fileKey.isEmpty() ? null : fileKey, sha, hasCrc, crc,
+                        chunkSize, chunks));
+            }
+            dirty = version != VERSION; // réécrit au format courant
+            log.info("Cache de hash chargé: " + entries.size() + " entrée(s).");
+        } catch (IOException e) {
+            entries.clear();
+            log.warning("Cache de hash illisible, il sera reconstruit: " + e.getMessage());
+        }
+    }
+
+    private static String fileKeyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey(); // (dev, inode) sous Unix, null sous Windows
+        return key == null ? null : key.toString();
+    }
+}
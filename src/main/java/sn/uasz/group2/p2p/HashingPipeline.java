@@ -0,0 +1,147 @@
+package sn.uasz.group2.p2p;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+
+/**
+ * Calcul des SHA-256 en parallèle sur un pool de taille fixe.
+ * Les plus gros fichiers partent en premier (pas de traînard en fin de lot)
+ * et chaque résultat est publié dès qu'il est prêt.
+ *
+ * Taille du pool : -Dp2p.hash.threads=N, sinon selon -Dp2p.storage
+ * (hdd = 1 thread pour éviter les seeks, ssd/nvme = nombre de cœurs).
+ */
+public class HashingPipeline {
+    private static final Logger log = Logger.getLogger(HashingPipeline.class.getName());
+
+    /** Reçoit chaque résultat, depuis un thread du pool. */
+    public interface Listener {
+        void onHashed(File file, String sha256Hex);
+        default void onError(File file, IOException e) {
+            log.warning("Checksum error for " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /** Calcul d'une empreinte ; par défaut {@link CryptoUtils#sha256Hex(File)}. */
+    public interface Hasher {
+        String hash(File file) throws IOException;
+    }
+
+    /** Bilan d'un lot : de quoi régler le nombre de threads par machine. */
+    public static final class Stats {
+        public final int files;
+        public final long bytes;
+        public final long nanos;
+
+        Stats(int files, long bytes, long nanos) {
+            this.files = files;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+        public double filesPerSecond() { return nanos == 0 ? 0 : files * 1e9 / nanos; }
+        public double megabytesPerSecond() { return nanos == 0 ? 0 : bytes * 1e9 / nanos / (1024 * 1024); }
+
+        @Override public String toString() {
+            return String.format("%d fichier(s), %.1f Mo en %d ms (%.1f fichiers/s, %.1f Mo/s)",
+                    files, bytes / (1024.0 * 1024), TimeUnit.NANOSECONDS.toMillis(nanos),
+                    filesPerSecond(), megabytesPerSecond());
+        }
+    }
+
+    private final int workers;
+
+    public HashingPipeline(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    public HashingPipeline() {
+        this(defaultWorkers());
+    }
+
+    public int getWorkers() { return workers; }
+
+    public static int defaultWorkers() {
+        Integer forced = Integer.getInteger("p2p.hash.threads");
+        if (forced != null && forced > 0) return forced;
+        int cores = Runtime.getRuntime().availableProcessors();
+        String storage = System.getProperty("p2p.storage", "ssd");
+        switch (storage.toLowerCase()) {
+            case "hdd":  return 1;
+            case "nvme": return cores;
+            default:     return Math.min(cores, 8);
+        }
+    }
+
+    /** Hash tous les fichiers (plus gros d'abord) et attend la fin du lot. */
+    public Stats hashAll(List<File> files, Listener listener) throws InterruptedException {
+        return hashAll(files, File::length, CryptoUtils::sha256Hex, listener);
+    }
+
+    /** Idem avec un calcul fourni (ex. {@link HashCache#hash}, qui met en cache au passage). */
+    public Stats hashAll(List<File> files, Hasher hasher, Listener listener) throws InterruptedException {
+        return hashAll(files, File::length, hasher, listener);
+    }
+
+    /**
+     * Idem avec les tailles déjà connues (attributs lus pendant le parcours) :
+     * aucun stat() de plus pour le tri ni pour le bilan.
+     */
+    public Stats hashAll(List<File> files, ToLongFunction<File> sizeOf, Hasher hasher, Listener listener)
+            throws InterruptedException {
+        List<Job> work = new ArrayList<>(files.size());
+        for (File f : files) work.add(new Job(f, sizeOf.applyAsLong(f)));
+        work.sort((a, b) -> Long.compare(b.size, a.size));
+
+        AtomicInteger done = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        long t0 = System.nanoTime();
+        if (!work.isEmpty()) {
+            AtomicInteger seq = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, work.size()), r -> {
+                Thread t = new Thread(r, "hasher-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                for (Job job : work) {
+                    pool.execute(() -> {
+                        try {
+                            String hex = hasher.hash(job.file);
+                            bytes.addAndGet(job.size);
+                            done.incrementAndGet();
+                            listener.onHashed(job.file, hex);
+                        } catch (IOException e) {
+                            listener.onError(job.file, e);
+                        }
+                    });
+                }
+                pool.shutdown();
+                while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.info("Hash en cours: " + done.get() + "/" + work.size() + " fichier(s)...");
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        return new Stats(done.get(), bytes.get(), System.nanoTime() - t0);
+    }
+
+    private static final class Job {
+        final File file;
+        final long size;
+
+        Job(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package sn.uasz.group2.p2p;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Contenus déjà présents sur la machine, par SHA-256 : le partage (via
+ * l'index par contenu de {@link SharedIndex}) et le dossier de
+ * téléchargements. Un téléchargement dont le contenu est déjà là est servi
+ * localement, par copie, sans aucun transfert réseau.
+ *
+ * Le dossier de téléchargements est parcouru une fois en arrière-plan (les
+ * SHA-256 sont repris d'un {@link HashCache}), puis chaque fichier téléchargé
+ * est ajouté à la fin de son transfert. Mode : -Dp2p.dedup=copy (défaut),
+ * link ou off.
+ *
+ * Avec link, le fichier est un lien physique vers l'original (même système
+ * de fichiers, aucun octet copié) : les deux noms désignent alors le même
+ * contenu sur disque, et modifier l'un (édition sur place, troncature)
+ * modifie l'autre, y compris un fichier du partage servi aux pairs. À
+ * réserver aux dossiers dont les fichiers ne sont jamais modifiés sur place.
+ */
+public class LocalContentIndex implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(LocalContentIndex.class.getName());
+
+    private final SharedIndex share;
+    private final Path downloadsDir;
+    private final HashCache hashCache;
+    private final String mode = System.getProperty("p2p.dedup", "copy").toLowerCase();
+    /** SHA-256 → fichier du dossier de téléchargements (avec sa taille et sa date à l'indexation). */
+    private final Map<String, Entry> downloads = new ConcurrentHashMap<>();
+    private final Thread scanThread;
+    /** Faux si les téléchargements vont dans le partage lui-même, déjà couvert par son index (et son cache). */
+    private final boolean scanDownloads;
+
+    private static final class Entry {
+        final Path path;
+        final long size;
+        final long lastModified;
+
+        Entry(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /** @param share index du partage local, ou null si le nœud n'est pas démarré */
+    public LocalContentIndex(SharedIndex share, Path downloadsDir) {
+        this.share = share;
+        this.downloadsDir = downloadsDir.toAbsolutePath().normalize();
+        this.hashCache = HashCache.forShare(this.downloadsDir);
+        this.scanThread = new Thread(this::scan, "dedup-scan");
+        this.scanThread.setDaemon(true);
+        this.scanDownloads = !mode.equals("off") && (share == null
+                || !this.downloadsDir.equals(share.resolve("").toPath().toAbsolutePath().normalize()));
+        if (scanDownloads) this.scanThread.start();
+    }
+
+    /**
+     * Fichier local de contenu {@code sha256Hex} et de taille {@code size},
+     * revalidé (taille et date de modification inchangées), ou null.
+     */
+    public Path find(String sha256Hex, long size) {
+        if (mode.equals("off")) return null;
+        if (share != null) {
+            FileMetadata meta = share.lookupBySha256(sha256Hex);
+            if (meta != null && meta.getSize() == size) return share.resolve(meta.getName()).toPath();
+        }
+        Entry e = downloads.get(sha256Hex.toUpperCase());
+        if (e == null || e.size != size) return null;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(e.path, BasicFileAttributes.class);
+            if (attrs.size() == e.size && attrs.lastModifiedTime().toMillis() == e.lastModified) return e.path;
+        } catch (IOException ignore) {
+            // supprimé depuis
+        }
+        downloads.remove(sha256Hex.toUpperCase(), e);
+        return null;
+    }
+
+    /**
+     * Crée {@code dest} à partir du contenu local {@code sha256Hex} s'il
+     * existe : lien physique, sinon copie. Renvoie false (sans rien modifier)
+     * si le contenu n'est pas disponible localement.
+     */
+    public boolean materialize(String sha256Hex, long size, Path dest) {
+        Path src = find(sha256Hex, size);
+        if (src == null) return false;
+        try {
+            if (Files.exists(dest) && Files.isSameFile(src, dest)) return true; // déjà là
+            Path tmp = dest.resolveSibling(dest.getFileName() + ".dedup");
+            Files.deleteIfExists(tmp);
+            boolean linked = false;
+            if (mode.equals("link")) {
+                try {
+                    Files.createLink(tmp, src);
+                    linked = true;
+                } catch (IOException | UnsupportedOperationException e) {
+                    // autre système de fichiers, ou liens non supportés : copie
+                }
+            }
+            if (!linked) Files.copy(src, tmp, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+            record(dest, sha256Hex);
+            log.info("Contenu déjà présent (" + (linked ? "lien" : "copie") + " depuis " + src + "): " + dest);
+            return true;
+        } catch (IOException e) {
+            log.warning("Copie locale impossible vers " + dest + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Ajoute un fichier dont le SHA-256 est connu (fin de téléchargement). */
+    public void record(Path file, String sha256Hex) {
+        if (mode.equals("off")) return;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            Path abs = file.toAbsolutePath().normalize();
+            downloads.put(sha256Hex.toUpperCase(), new Entry(abs, attrs.size(), attrs.lastModifiedTime().toMillis()));
+            if (scanDownloads && abs.startsWith(downloadsDir)) hashCache.put(nameOf(abs), attrs, sha256Hex.toUpperCase());
+        } catch (IOException e) {
+            log.fine("Fichier téléchargé introuvable: " + file);
+        }
+    }
+
+    public int size() {
+        return downloads.size();
+    }
+
+    /** Parcours initial du dossier de téléchargements (fichiers .part ignorés). */
+    private void scan() {
+        if (!Files.isDirectory(downloadsDir)) return;
+        Map<String, BasicFileAttributes> attrsByName = new HashMap<>();
+        List<File> toHash = new ArrayList<>();
+        Set<String> present = new HashSet<>();
+        try {
+            Files.walkFileTree(downloadsDir, new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String fileName = file.getFileName().toString();
+                    if (!attrs.isRegularFile() || attrs.size() == 0 || fileName.endsWith(".part")
+                            || fileName.endsWith(".part.state") || fileName.endsWith(".dedup")) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    String name = nameOf(file);
+                    present.add(name);
+                    String hex = hashCache.lookup(name, attrs);
+                    if (hex != null) {
+                        downloads.putIfAbsent(hex, new Entry(file, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    } else {
+                        attrsByName.put(name, attrs);
+                        toHash.add(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            HashingPipeline.Stats stats = new HashingPipeline().hashAll(toHash, f -> attrsByName.get(nameOf(f.toPath())).size(), f -> {
+                String name = nameOf(f.toPath());
+                return hashCache.hash(name, attrsByName.get(name), f);
+            }, (f, hex) -> {
+                String name = nameOf(f.toPath());
+                BasicFileAttributes attrs = attrsByName.get(name);
+                downloads.putIfAbsent(hex, new Entry(f.toPath(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+            });
+            hashCache.retainOnly(present);
+            hashCache.save();
+            log.info("Téléchargements indexés: " + downloads.size() + " contenu(s) distinct(s), " + stats);
+        } catch (IOException e) {
+            log.warning("Parcours impossible de " + downloadsDir + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String nameOf(Path p) {
+        String rel = downloadsDir.relativize(p).toString();
+        return File.separatorChar == '/' ? rel : rel.replace(File.separatorChar, '/');
+    }
+
+    @Override public void close() {
+        scanThread.interrupt();
+        if (scanDownloads) hashCache.save();
+    }
+}
@@ -30,6 +30,12 @@ public class MainApp {
           case "--downloads":
             if (i + 1 < args.length) downloads = Paths.get(args[++i]);
             break;
+          case "--engine":
+            if (i + 1 < args.length) System.setProperty("p2p.server.engine", args[++i]);
+            break;
+          case "--max-connections":
+            if (i + 1 < args.length) System.setProperty("p2p.server.maxConnections", args[++i]);
+            break;
         }
       }
 
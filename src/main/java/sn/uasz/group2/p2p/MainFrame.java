@@ -13,10 +13,14 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -36,10 +40,17 @@ public class MainFrame extends JFrame {
     private static final Color WHITE = Color.WHITE;
     private static final Color ACCENT_COLOR = new Color(155, 89, 182);
 
+    // Recherche réseau : délai par pair et nombre de résultats demandés à chacun
+    private static final int SEARCH_TIMEOUT_MS = 3000;
+    private static final int SEARCH_LIMIT_PER_PEER = 200;
+    // LIST et transferts : un pair muet fait échouer la requête au lieu de bloquer le thread
+    private static final int CLIENT_TIMEOUT_MS = 60_000;
+
     // Champs saisis par l'utilisateur
     private final JTextField portField;
     private final JTextField shareField;
     private final JTextField dlField;
+    private final JTextField searchField;
     private Path defaultDownloadsDir;
 
     // UI listes avec modèles personnalisés
@@ -51,18 +62,42 @@ public class MainFrame extends JFrame {
 
     // Téléchargés par pair
     private final Map<String, DefaultListModel<String>> downloadedByPeer = new HashMap<>();
+
+    // Catalogues distants en cache, mis à jour par LIST SINCE quand la balise du pair change de version
+    private final Map<String, RemoteCatalog> catalogs = new java.util.concurrent.ConcurrentHashMap<>();
+    // Pair dont le catalogue est affiché dans filesList (null : résultats de recherche), et MAJ en cours
+    private String shownCatalog;
+    private boolean catalogSyncPending;
     private final JList<String> downloadedList = new JList<>(new DefaultListModel<>());
 
+    // Résultats de la dernière recherche réseau affichés dans filesList
+    private final Map<FileMetadata, NetworkSearch.Hit> searchHits = new IdentityHashMap<>();
+    private int searchSeq;
+
+    // File de téléchargements (en file, en cours, en pause, échoués)
+    private final DefaultListModel<DownloadManager.Download> queueModel = new DefaultListModel<>();
+    private final JList<DownloadManager.Download> queueList = new JList<>(queueModel);
+
     // Boutons stylés
-    private JButton listBtn, dlBtn, startBtn, stopBtn, browseDefaultBtn, browseShareBtn;
+    private JButton listBtn, dlBtn, startBtn, stopBtn, browseDefaultBtn, browseShareBtn, searchBtn;
     private JLabel statusLabel;
+    private JCheckBox swarmBox;
 
     // Services
     private SharedIndex index;
     private PeerServer server;
     private PeerDiscovery discovery;
+    private LocalContentIndex localContent;
     private final javax.swing.Timer refreshTimer;
-    private final PeerClient client = new PeerClient();
+    private final PeerClient client = new PeerClient(CLIENT_TIMEOUT_MS);
+    private NetworkSearch networkSearch; // créée à chaque démarrage : close() arrête ses threads
+    private final DownloadManager downloads = new DownloadManager();
+    // LIST un par un, hors EDT
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "list");
+        t.setDaemon(true);
+        return t;
+    });
 
     // Cache adresses locales
     private Set<String> localAddrsCache;
@@ -91,6 +126,9 @@ public class MainFrame extends JFrame {
         this.shareField = createStyledTextField(sharePath);
         this.defaultDownloadsDir = Paths.get(downloadPath);
         this.dlField = createStyledTextField(defaultDownloadsDir.toString());
+        this.searchField = createStyledTextField("");
+        this.searchField.setPreferredSize(new Dimension(420, 35));
+        this.searchField.setToolTipText("Mots du nom, ext:pdf, prefix:dossier/, min:1M, max:10M");
 
         // Configuration des listes
         setupLists();
@@ -103,6 +141,8 @@ public class MainFrame extends JFrame {
 
         // Timer de rafraîchissement
         refreshTimer = new javax.swing.Timer(2000, e -> refreshPeers());
+
+        downloads.addListener(d -> SwingUtilities.invokeLater(() -> onDownloadChanged(d)));
     }
 
     public MainFrame() {
@@ -184,6 +224,15 @@ public class MainFrame extends JFrame {
         filesList.setBorder(new EmptyBorder(8, 8, 8, 8));
         filesList.setSelectionBackground(ACCENT_COLOR);
         filesList.setSelectionForeground(WHITE);
+        filesList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                NetworkSearch.Hit hit = searchHits.get(value);
+                return super.getListCellRendererComponent(list, hit != null ? hit : value, index,
+                        isSelected, cellHasFocus);
+            }
+        });
 
         // Configuration de la liste des téléchargements
         downloadedList.setFont(new Font("Segoe UI", Font.PLAIN, 12));
@@ -192,6 +241,13 @@ public class MainFrame extends JFrame {
         downloadedList.setSelectionBackground(SUCCESS_COLOR);
         downloadedList.setSelectionForeground(WHITE);
 
+        // Configuration de la file de téléchargements
+        queueList.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        queueList.setBackground(WHITE);
+        queueList.setBorder(new EmptyBorder(4, 8, 4, 8));
+        queueList.setSelectionBackground(PRIMARY_COLOR);
+        queueList.setSelectionForeground(WHITE);
+
         // Configuration de la zone de logs
         logArea.setEditable(false);
         logArea.setFont(new Font("Consolas", Font.PLAIN, 11));
@@ -267,7 +323,7 @@ public class MainFrame extends JFrame {
     }
 
     private JPanel createConfigPanel() {
-        JPanel config = new JPanel(new GridLayout(2, 1, 0, 12));
+        JPanel config = new JPanel(new GridLayout(3, 1, 0, 12));
         config.setBackground(WHITE);
         config.setBorder(new CompoundBorder(
             new LineBorder(DARK_GRAY.brighter(), 1),
@@ -310,12 +366,32 @@ public class MainFrame extends JFrame {
         dlBtn.addActionListener(this::onDownload);
         row2.add(dlBtn);
 
+        swarmBox = new JCheckBox("Multi-sources");
+        swarmBox.setOpaque(false);
+        swarmBox.setFont(new Font("Segoe UI", Font.BOLD, 12));
+        swarmBox.setForeground(SECONDARY_COLOR);
+        swarmBox.setToolTipText("Télécharger par blocs depuis tous les pairs qui ont le même fichier (SHA-256)");
+        row2.add(swarmBox);
+
         stopBtn = createStyledButton("⏹ Arrêter", DANGER_COLOR);
         stopBtn.addActionListener(e -> onStop());
         row2.add(stopBtn);
 
+        // Troisième ligne : recherche sur tous les pairs
+        JPanel row3 = new JPanel(new FlowLayout(FlowLayout.LEFT, 12, 0));
+        row3.setOpaque(false);
+
+        row3.add(createLabel("Recherche réseau:"));
+        row3.add(searchField);
+        searchField.addActionListener(this::onSearch);
+
+        searchBtn = createStyledButton("🔍 Rechercher", PRIMARY_COLOR);
+        searchBtn.addActionListener(this::onSearch);
+        row3.add(searchBtn);
+
         config.add(row1);
         config.add(row2);
+        config.add(row3);
 
         return config;
     }
@@ -333,7 +409,20 @@ public class MainFrame extends JFrame {
 
         // Panel des pairs (gauche)
         JPanel peersPanel = createStyledPanel("🌐 Pairs Détectés", new JScrollPane(peersList));
-        peersPanel.setPreferredSize(new Dimension(300, 400));
+
+        // File de téléchargements sous les pairs
+        JPanel queueContent = new JPanel(new BorderLayout());
+        queueContent.setOpaque(false);
+        queueContent.add(new JScrollPane(queueList), BorderLayout.CENTER);
+        queueContent.add(createQueueToolbar(), BorderLayout.SOUTH);
+        JPanel queuePanel = createStyledPanel("⏳ File de Téléchargements", queueContent);
+        queuePanel.setPreferredSize(new Dimension(300, 200));
+
+        JPanel leftPanel = new JPanel(new BorderLayout(0, 16));
+        leftPanel.setOpaque(false);
+        leftPanel.setPreferredSize(new Dimension(300, 400));
+        leftPanel.add(peersPanel, BorderLayout.CENTER);
+        leftPanel.add(queuePanel, BorderLayout.SOUTH);
 
         // Panel de droite (fichiers + téléchargements)
         JPanel rightPanel = new JPanel(new BorderLayout(0, 16));
@@ -345,12 +434,36 @@ public class MainFrame extends JFrame {
         rightPanel.add(filesPanel, BorderLayout.CENTER);
         rightPanel.add(downloadsPanel, BorderLayout.SOUTH);
 
-        main.add(peersPanel, BorderLayout.WEST);
+        main.add(leftPanel, BorderLayout.WEST);
         main.add(rightPanel, BorderLayout.CENTER);
 
         return main;
     }
 
+    /** Actions sur les téléchargements sélectionnés dans la file. */
+    private JPanel createQueueToolbar() {
+        JPanel bar = new JPanel(new GridLayout(1, 4, 4, 0));
+        bar.setOpaque(false);
+        bar.setBorder(new EmptyBorder(4, 4, 4, 4));
+        bar.add(createQueueButton("⏸", "Mettre en pause", downloads::pause));
+        bar.add(createQueueButton("▶", "Reprendre (ou réessayer)", downloads::resume));
+        bar.add(createQueueButton("✖", "Annuler", downloads::cancel));
+        bar.add(createQueueButton("⬆", "Prioritaire",
+                d -> downloads.setPriority(d, DownloadManager.Priority.HIGH)));
+        return bar;
+    }
+
+    private JButton createQueueButton(String text, String tooltip,
+                                      java.util.function.Consumer<DownloadManager.Download> action) {
+        JButton button = createStyledButton(text, SECONDARY_COLOR);
+        button.setPreferredSize(new Dimension(50, 28));
+        button.setToolTipText(tooltip);
+        button.addActionListener(e -> {
+            for (DownloadManager.Download d : queueList.getSelectedValuesList()) action.accept(d);
+        });
+        return button;
+    }
+
     private JPanel createStyledPanel(String title, JComponent content) {
         JPanel panel = new JPanel(new BorderLayout());
         panel.setBackground(WHITE);
@@ -404,6 +517,7 @@ public class MainFrame extends JFrame {
         if (fc.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             defaultDownloadsDir = fc.getSelectedFile().toPath();
             dlField.setText(defaultDownloadsDir.toString());
+            if (index != null) openLocalContent();
             logln("✓ Dossier de téléchargements configuré : " + defaultDownloadsDir);
         }
     }
@@ -415,7 +529,9 @@ public class MainFrame extends JFrame {
             index = new SharedIndex(share);
             server = new PeerServer(port, index);
             server.start();
-            discovery = new PeerDiscovery(port);
+            discovery = new PeerDiscovery(port, index);
+            networkSearch = new NetworkSearch(SEARCH_TIMEOUT_MS);
+            openLocalContent();
             refreshTimer.start();
 
             statusLabel.setText("● En ligne");
@@ -435,6 +551,12 @@ public class MainFrame extends JFrame {
             if (discovery != null) discovery.close();
             if (server != null) server.close();
             if (index != null) index.close();
+            client.setLocalContent(null);
+            if (localContent != null) localContent.close();
+            for (DownloadManager.Download d : downloads.pending()) downloads.pause(d);
+            client.close();
+            if (networkSearch != null) networkSearch.close();
+            networkSearch = null;
             refreshTimer.stop();
 
             statusLabel.setText("● Arrêté");
@@ -476,6 +598,15 @@ public class MainFrame extends JFrame {
 
         String sel = peersList.getSelectedValue();
         if (sel != null) downloadedList.setModel(getDownloadedModelFor(sel));
+
+        // Catalogue affiché : rechargé dès que la balise du pair annonce une autre version
+        if (shownCatalog != null && !catalogSyncPending) {
+            PeerInfo peer = discovery.getPeer(shownCatalog);
+            RemoteCatalog catalog = catalogs.get(shownCatalog);
+            if (peer != null && catalog != null && peer.hasIndexVersion() && !catalog.isCurrent(peer)) {
+                syncCatalog(shownCatalog, false);
+            }
+        }
     }
 
     private void onListRemote(ActionEvent e) {
@@ -485,45 +616,188 @@ public class MainFrame extends JFrame {
             return;
         }
 
-        setButtonsEnabled(false, true);
-        new Thread(() -> {
+        setButtonsEnabled(false, null);
+        syncCatalog(sel, true);
+    }
+
+    /**
+     * Met à jour puis affiche le catalogue en cache du pair {@code sel}, hors
+     * EDT : aucune connexion si sa balise annonce la version déjà reçue.
+     * {@code manual} : demandé par le bouton (journal et boutons à rétablir).
+     */
+    private void syncCatalog(String sel, boolean manual) {
+        final PeerInfo peer = discovery != null ? discovery.getPeer(sel) : null;
+        catalogSyncPending = true;
+        background.execute(() -> {
             try {
-                String[] hp = sel.split(":");
-                InetAddress host = InetAddress.getByName(hp[0]);
-                int port = Integer.parseInt(hp[1]);
-                List<FileMetadata> list = client.list(host, port);
+                RemoteCatalog catalog = catalogs.computeIfAbsent(sel, k -> new RemoteCatalog());
+                boolean upToDate = peer != null && catalog.isCurrent(peer);
+                int received;
+                if (peer != null) {
+                    received = client.sync(peer, catalog);
+                } else {
+                    String[] hp = sel.split(":");
+                    received = client.sync(InetAddress.getByName(hp[0]), Integer.parseInt(hp[1]), catalog);
+                }
+                List<FileMetadata> list = catalog.list();
 
                 SwingUtilities.invokeLater(() -> {
+                    if (!manual && !sel.equals(shownCatalog)) return; // l'utilisateur est passé à autre chose
+                    searchSeq++; // une recherche en cours n'écrase plus la liste
+                    shownCatalog = sel;
+                    searchHits.clear();
                     filesModel.clear();
                     for (FileMetadata fm : list) filesModel.addElement(fm);
-                    logln("📋 Liste reçue de " + sel + " : " + list.size() + " fichier(s)");
+                    if (upToDate) {
+                        logln("📋 Liste de " + sel + " : " + list.size() + " fichier(s), déjà à jour");
+                    } else {
+                        logln("📋 Liste " + (manual ? "reçue" : "mise à jour") + " de " + sel + " : " + list.size()
+                                + " fichier(s), " + received + " changement(s) transféré(s)");
+                    }
                 });
             } catch (Exception ex) {
-                SwingUtilities.invokeLater(() -> logln("❌ Erreur LIST: " + ex.getMessage()));
+                // MAJ automatique : pas de message toutes les 2 s si le pair ne répond plus
+                if (manual) SwingUtilities.invokeLater(() -> logln("❌ Erreur LIST: " + ex.getMessage()));
             } finally {
-                SwingUtilities.invokeLater(() -> setButtonsEnabled(true, null));
+                SwingUtilities.invokeLater(() -> {
+                    catalogSyncPending = false;
+                    if (manual) setButtonsEnabled(true, null);
+                });
             }
-        }, "list-" + sel).start();
+        });
+    }
+
+    private void onSearch(ActionEvent e) {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) return;
+        if (discovery == null || networkSearch == null) {
+            logln("⚠️ Démarrez le nœud avant de rechercher.");
+            return;
+        }
+        List<PeerInfo> peers = new ArrayList<>();
+        for (PeerInfo p : discovery.getPeers()) if (!isSelf(p)) peers.add(p);
+        if (peers.isEmpty()) {
+            logln("⚠️ Aucun pair détecté.");
+            return;
+        }
+
+        final int seq = ++searchSeq;
+        shownCatalog = null;
+        searchHits.clear();
+        filesModel.clear();
+        searchBtn.setEnabled(false);
+        logln("🔍 Recherche « " + query + " » auprès de " + peers.size() + " pair(s)...");
+
+        final AtomicInteger skipped = new AtomicInteger();
+        networkSearch.search(peers, query, SEARCH_LIMIT_PER_PEER, new NetworkSearch.Listener() {
+            @Override public void onResults(PeerInfo peer, int peerHits, List<NetworkSearch.Hit> ranking) {
+                SwingUtilities.invokeLater(() -> {
+                    if (seq != searchSeq) return;
+                    showHits(ranking);
+                    logln("🔍 " + peer + " : " + peerHits + " résultat(s)");
+                });
+            }
+
+            @Override public void onPeerFailed(PeerInfo peer, Exception ex) {
+                SwingUtilities.invokeLater(() -> {
+                    if (seq == searchSeq) logln("⚠️ " + peer + " n'a pas répondu : " + ex.getMessage());
+                });
+            }
+
+            @Override public void onPeerSkipped(PeerInfo peer) {
+                skipped.incrementAndGet();
+            }
+
+            @Override public void onComplete(List<NetworkSearch.Hit> ranking) {
+                SwingUtilities.invokeLater(() -> {
+                    searchBtn.setEnabled(true);
+                    if (seq != searchSeq) return;
+                    showHits(ranking);
+                    int n = skipped.get();
+                    logln("✅ Recherche terminée : " + ranking.size() + " fichier(s) distinct(s)"
+                            + (n > 0 ? ", " + n + " pair(s) écarté(s) d'après leur résumé" : ""));
+                });
+            }
+        });
+    }
+
+    /** Remplace le contenu de filesList par le classement, en gardant la sélection. */
+    private void showHits(List<NetworkSearch.Hit> ranking) {
+        FileMetadata selected = filesList.getSelectedValue();
+        String selectedSha = selected != null ? selected.getSha256Hex() : null;
+        searchHits.clear();
+        filesModel.clear();
+        for (NetworkSearch.Hit hit : ranking) {
+            FileMetadata fm = hit.getMetadata();
+            searchHits.put(fm, hit);
+            filesModel.addElement(fm);
+            if (fm.getSha256Hex().equals(selectedSha)) filesList.setSelectedIndex(filesModel.size() - 1);
+        }
+    }
+
+    /** Téléchargement d'un résultat de recherche : toutes ses sources, sans pair sélectionné. */
+    private void downloadHit(NetworkSearch.Hit hit, DownloadManager.Priority priority) {
+        final FileMetadata meta = hit.getMetadata();
+        final List<SwarmDownloader.Source> sources = hit.getSources();
+        final Path destDir = defaultDownloadsDir;
+        final SwarmDownloader.Source first = sources.get(0);
+
+        // Multi-sources : pas de pair limitant, la charge est répartie
+        downloads.submit(meta.getName(), sources.size() > 1 ? null : first.peer.toString(), priority, () -> {
+            Path path = sources.size() > 1
+                    ? new SwarmDownloader(client).download(meta, sources, destDir)
+                    : client.download(first.peer.address, first.peer.port, first.name, destDir,
+                            meta.getSha256Hex(), meta.getSize());
+
+            SwingUtilities.invokeLater(() -> {
+                logln("✅ Téléchargement terminé : " + path.getFileName() + " depuis "
+                        + sources.size() + " source(s)");
+                for (SwarmDownloader.Source s : sources) {
+                    getDownloadedModelFor(s.peer.toString()).addElement(path.getFileName().toString());
+                }
+            });
+            return path;
+        });
     }
 
     private void onDownload(ActionEvent e) {
         final String selPeer = peersList.getSelectedValue();
-        final FileMetadata meta = filesList.getSelectedValue();
-        if (selPeer == null || meta == null) {
+        final List<FileMetadata> selected = filesList.getSelectedValuesList();
+        if (selected.isEmpty()) {
             logln("⚠️ Sélectionnez un pair et un fichier.");
             return;
         }
+        // Un clic sur un seul fichier passe devant un gros lot déjà en file
+        DownloadManager.Priority priority = selected.size() == 1
+                ? DownloadManager.Priority.HIGH : DownloadManager.Priority.NORMAL;
 
         final Path destDir = defaultDownloadsDir;
-        setButtonsEnabled(null, false);
+        final boolean swarm = swarmBox.isSelected() && discovery != null;
+        final List<PeerInfo> peers = new ArrayList<>();
+        if (swarm) {
+            for (PeerInfo p : discovery.getPeers()) if (!isSelf(p)) peers.add(p);
+        }
 
-        new Thread(() -> {
-            try {
+        int queued = 0;
+        for (FileMetadata meta : selected) {
+            NetworkSearch.Hit hit = searchHits.get(meta);
+            if (hit != null) {
+                downloadHit(hit, priority);
+                queued++;
+                continue;
+            }
+            if (selPeer == null) {
+                logln("⚠️ Sélectionnez un pair et un fichier.");
+                return;
+            }
+            downloads.submit(meta.getName(), swarm ? null : selPeer, priority, () -> {
                 String[] hp = selPeer.split(":");
                 InetAddress host = InetAddress.getByName(hp[0]);
                 int port = Integer.parseInt(hp[1]);
 
-                Path path = client.download(host, port, meta.getName(), destDir);
+                Path path = swarm
+                        ? new SwarmDownloader(client).download(meta, peers, destDir)
+                        : client.download(host, port, meta.getName(), destDir, meta.getSha256Hex(), meta.getSize());
 
                 SwingUtilities.invokeLater(() -> {
                     logln("✅ Téléchargement terminé : " + path.getFileName() + " depuis " + selPeer);
@@ -533,12 +807,37 @@ public class MainFrame extends JFrame {
                         downloadedList.setModel(model);
                     }
                 });
-            } catch (Exception ex) {
-                SwingUtilities.invokeLater(() -> logln("❌ Erreur téléchargement: " + ex.getMessage()));
-            } finally {
-                SwingUtilities.invokeLater(() -> setButtonsEnabled(null, true));
-            }
-        }, "download-" + meta.getName()).start();
+                return path;
+            });
+            queued++;
+        }
+        if (queued > 1) logln("⏳ " + queued + " téléchargement(s) mis en file");
+    }
+
+    /** Suit les changements d'état de la file (sur l'EDT). */
+    private void onDownloadChanged(DownloadManager.Download d) {
+        int i = queueModel.indexOf(d);
+        switch (d.getState()) {
+            case DONE:
+            case CANCELLED:
+                if (i >= 0) queueModel.remove(i);
+                if (d.getState() == DownloadManager.State.CANCELLED) logln("✖ Téléchargement annulé : " + d.getLabel());
+                return;
+            case FAILED:
+                logln("❌ Erreur téléchargement: " + d.getLabel() + " — " + d.getError());
+                break;
+            default:
+                break;
+        }
+        if (i >= 0) queueModel.set(i, d); // rafraîchit la ligne
+        else queueModel.addElement(d);
+    }
+
+    /** Contenus déjà sur la machine (partage + téléchargements) : servis sans transfert. */
+    private void openLocalContent() {
+        if (localContent != null) localContent.close();
+        localContent = new LocalContentIndex(index, defaultDownloadsDir);
+        client.setLocalContent(localContent);
     }
 
     // Méthodes utilitaires (logique inchangée)
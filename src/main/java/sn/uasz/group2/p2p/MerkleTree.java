@@ -0,0 +1,139 @@
+package sn.uasz.group2.p2p;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Arbre de Merkle d'un fichier : SHA-256 de chaque bloc de taille fixe
+ * (feuilles) et racine SHA-256(gauche || droite) calculée niveau par niveau
+ * (un nœud orphelin remonte tel quel). Permet de vérifier chaque bloc dès
+ * sa réception, dans n'importe quel ordre.
+ */
+public final class MerkleTree {
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_CHUNKS = 1 << 24;
+
+    private final String fileSha256Hex;
+    private final long fileSize;
+    private final int chunkSize;
+    private final byte[][] leaves;
+    private final byte[] root;
+
+    public MerkleTree(String fileSha256Hex, long fileSize, int chunkSize, byte[][] leaves) {
+        this.fileSha256Hex = fileSha256Hex;
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        this.leaves = leaves;
+        this.root = computeRoot(leaves);
+    }
+
+    public String getFileSha256Hex() { return fileSha256Hex; }
+    public long getFileSize() { return fileSize; }
+    public int getChunkSize() { return chunkSize; }
+    public int getChunkCount() { return leaves.length; }
+    public byte[] getRoot() { return root.clone(); }
+
+    /** Feuilles (sans copie : ne pas modifier). */
+    byte[][] getLeaves() { return leaves; }
+
+    public long chunkOffset(int i) { return (long) i * chunkSize; }
+
+    public int chunkLength(int i) {
+        return (int) Math.min(chunkSize, fileSize - chunkOffset(i));
+    }
+
+    /** Vrai si les octets reçus pour le bloc i ont le bon SHA-256. */
+    public boolean verifyChunk(int i, byte[] data, int off, int len) {
+        if (len != chunkLength(i)) return false;
+        MessageDigest md = sha256();
+        md.update(data, off, len);
+        return MessageDigest.isEqual(md.digest(), leaves[i]);
+    }
+
+    /** Calcule les feuilles en une seule lecture du fichier. */
+    public static MerkleTree build(File f, String fileSha256Hex, int chunkSize) throws IOException {
+        try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = fc.size();
+            int count = (int) ((size + chunkSize - 1) / chunkSize);
+            byte[][] leaves = new byte[count][];
+            ByteBuffer buf = ByteBuffer.allocate(Math.min(chunkSize, 1 << 20));
+            MessageDigest md = sha256();
+            long pos = 0;
+            for (int i = 0; i < count; i++) {
+                long end = Math.min(size, pos + chunkSize);
+                while (pos < end) {
+                    buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+                    int n = fc.read(buf, pos);
+                    if (n < 0) throw new EOFException("Fichier tronqué pendant le calcul: " + f.getName());
+                    md.update(buf.array(), 0, n);
+                    pos += n;
+                }
+                leaves[i] = md.digest();
+            }
+            return new MerkleTree(fileSha256Hex, size, chunkSize, leaves);
+        }
+    }
+
+    /** Format réseau : sha(32) taille(long) tailleBloc(int) nbBlocs(int) racine(32) feuilles(32*n). */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.write(CryptoUtils.hexToBytes(fileSha256Hex));
+        out.writeLong(fileSize);
+        out.writeInt(chunkSize);
+        out.writeInt(leaves.length);
+        out.write(root);
+        for (byte[] leaf : leaves) out.write(leaf);
+    }
+
+    /** Lit l'arbre et vérifie que la racine annoncée correspond aux feuilles. */
+    public static MerkleTree readFrom(DataInputStream in) throws IOException {
+        String sha = CryptoUtils.bytesToHex(in.readNBytes(32));
+        long size = in.readLong();
+        int chunkSize = in.readInt();
+        int count = in.readInt();
+        if (chunkSize <= 0 || count < 0 || count > MAX_CHUNKS
+                || count != (int) ((size + chunkSize - 1) / chunkSize)) {
+            throw new IOException("Liste de blocs invalide (" + count + " x " + chunkSize + ")");
+        }
+        byte[] announced = new byte[32];
+        in.readFully(announced);
+        byte[][] leaves = new byte[count][32];
+        for (byte[] leaf : leaves) in.readFully(leaf);
+        MerkleTree tree = new MerkleTree(sha, size, chunkSize, leaves);
+        if (!Arrays.equals(announced, tree.root)) throw new IOException("Racine de Merkle incohérente");
+        return tree;
+    }
+
+    static byte[] computeRoot(byte[][] leaves) {
+        MessageDigest md = sha256();
+        if (leaves.length == 0) return md.digest();
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                int l = 2 * i;
+                if (l + 1 < level.length) {
+                    md.update(level[l]);
+                    md.update(level[l + 1]);
+                    next[i] = md.digest();
+                } else {
+                    next[i] = level[l];
+                }
+            }
+            level = next;
+        }
+        return level[0];
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package sn.uasz.group2.p2p;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+/**
+ * Métriques du nœud, communes à la JVM : compteurs, débits (compteur plus
+ * moyenne glissante sur une minute), jauges et histogrammes (latences,
+ * débits de téléchargement). Enregistrer coûte un LongAdder ou un
+ * incrément atomique, sans verrou ni allocation : les chemins chauds
+ * (envoi par tranches, requêtes) peuvent mesurer en permanence.
+ *
+ * Lecture : {@link #snapshot()} (noms aplatis, triés), la commande STATS du
+ * serveur (texte "nom valeur" par ligne) et JMX
+ * (sn.uasz.group2.p2p:type=Metrics, un attribut par valeur).
+ */
+public final class Metrics {
+    private static final Logger log = Logger.getLogger(Metrics.class.getName());
+
+    private static final Metrics GLOBAL = new Metrics();
+    public static final String OBJECT_NAME = "sn.uasz.group2.p2p:type=Metrics";
+
+    private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    public Counter counter(String name) {
+        return (Counter) metrics.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public Meter meter(String name) {
+        return (Meter) metrics.computeIfAbsent(name, k -> new Meter());
+    }
+
+    public Histogram histogram(String name) {
+        return (Histogram) metrics.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /** Valeur lue à chaque relevé ; remplace une jauge de même nom (dernier composant démarré). */
+    public void gauge(String name, LongSupplier value) {
+        metrics.put(name, new Gauge(value));
+    }
+
+    /** Retire la jauge si c'est toujours celle de {@code value} (arrêt du composant). */
+    public void removeGauge(String name, LongSupplier value) {
+        Object g = metrics.get(name);
+        if (g instanceof Gauge && ((Gauge) g).value == value) metrics.remove(name, g);
+    }
+
+    /**
+     * Toutes les valeurs, aplaties : un compteur ou une jauge donne "nom",
+     * un débit "nom.count" et "nom.rate1m" (par seconde), un histogramme
+     * "nom.count", "nom.mean", "nom.p50", "nom.p99", "nom.p999" et "nom.max".
+     */
+    public SortedMap<String, Number> snapshot() {
+        SortedMap<String, Number> out = new TreeMap<>();
+        for (Map.Entry<String, Object> e : metrics.entrySet()) {
+            String name = e.getKey();
+            Object m = e.getValue();
+            if (m instanceof Counter) {
+                out.put(name, ((Counter) m).get());
+            } else if (m instanceof Gauge) {
+                try {
+                    out.put(name, ((Gauge) m).value.getAsLong());
+                } catch (RuntimeException ex) {
+                    // composant en cours d'arrêt
+                }
+            } else if (m instanceof Meter) {
+                Meter meter = (Meter) m;
+                out.put(name + ".count", meter.getCount());
+                out.put(name + ".rate1m", meter.getRate());
+            } else {
+                Histogram h = (Histogram) m;
+                long count = h.getCount();
+                out.put(name + ".count", count);
+                out.put(name + ".mean", h.getMean());
+                out.put(name + ".p50", h.percentile(0.50));
+                out.put(name + ".p99", h.percentile(0.99));
+                out.put(name + ".p999", h.percentile(0.999));
+                out.put(name + ".max", h.getMax());
+            }
+        }
+        return out;
+    }
+
+    /** Format de STATS : une ligne "nom valeur" par métrique, triées par nom. */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Number> e : snapshot().entrySet()) {
+            Number v = e.getValue();
+            sb.append(e.getKey()).append(' ');
+            if (v instanceof Double) sb.append(String.format(java.util.Locale.ROOT, "%.3f", v.doubleValue()));
+            else sb.append(v);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Publie le registre global en JMX (une seule fois par JVM ; sans effet ensuite). */
+    public static synchronized void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new JmxView(GLOBAL), new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // déjà publié (plusieurs serveurs dans la même JVM)
+        } catch (Exception | LinkageError e) {
+            log.warning("Métriques non publiées en JMX: " + e);
+        }
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() { value.increment(); }
+        public void add(long n) { value.add(n); }
+        public long get() { return value.sum(); }
+    }
+
+    private static final class Gauge {
+        final LongSupplier value;
+
+        Gauge(LongSupplier value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Compteur avec débit moyen sur une minute, à décroissance exponentielle
+     * comme la charge Unix : mis à jour toutes les 5 s, au premier mark() ou
+     * à la première lecture qui suit.
+     */
+    public static final class Meter {
+        private static final long TICK_NANOS = 5_000_000_000L;
+        private static final double ALPHA = 1 - Math.exp(-5.0 / 60);
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder uncounted = new LongAdder();
+        private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+        private volatile double rate = Double.NaN;
+
+        public void mark(long n) {
+            count.add(n);
+            uncounted.add(n);
+            tickIfNeeded();
+        }
+
+        public long getCount() { return count.sum(); }
+
+        /** Événements (ou octets) par seconde sur la dernière minute environ. */
+        public double getRate() {
+            tickIfNeeded();
+            double r = rate;
+            return Double.isNaN(r) ? 0 : r;
+        }
+
+        private void tickIfNeeded() {
+            long last = lastTick.get();
+            long now = System.nanoTime();
+            long age = now - last;
+            if (age < TICK_NANOS) return;
+            long newTick = last + age / TICK_NANOS * TICK_NANOS;
+            if (!lastTick.compareAndSet(last, newTick)) return; // un autre thread s'en charge
+            long ticks = age / TICK_NANOS;
+            double instant = uncounted.sumThenReset() / 5.0;
+            double r = rate;
+            r = Double.isNaN(r) ? instant : r + ALPHA * (instant - r);
+            for (long i = 1; i < ticks; i++) r -= ALPHA * r; // intervalles sans aucun événement
+            rate = r;
+        }
+    }
+
+    /**
+     * Histogramme de valeurs positives à seaux logarithmiques : 8 seaux par
+     * puissance de deux (précision relative de 12,5 %), de 0 à Long.MAX_VALUE,
+     * 496 compteurs en tout. Cumulé depuis le démarrage : un collecteur
+     * calcule ses fenêtres par différence des compteurs.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = SUB + (63 - SUB_BITS) * SUB;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+            if (value > max.get()) max.accumulateAndGet(value, Math::max);
+        }
+
+        /** Enregistre la durée écoulée depuis {@code startNanos}, en microsecondes. */
+        public void recordMicrosSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        public long getCount() { return count.sum(); }
+        public long getMax() { return max.get(); }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /** Borne haute du seau contenant le quantile q (0..1), plafonnée au maximum observé. */
+        public long percentile(double q) {
+            long[] snap = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snap[i] = buckets.get(i);
+                total += snap[i];
+            }
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snap[i];
+                if (seen >= Math.max(1, rank)) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        static int index(long v) {
+            if (v < SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v); // >= SUB_BITS
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+            return SUB + (exp - SUB_BITS) * SUB + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < SUB) return index;
+            int exp = (index - SUB) / SUB + SUB_BITS;
+            long sub = (index - SUB) % SUB;
+            long lower = (SUB + sub) << (exp - SUB_BITS);
+            return lower + (1L << (exp - SUB_BITS)) - 1;
+        }
+    }
+
+    /** Vue JMX : un attribut en lecture seule par valeur de snapshot(), liste recalculée à chaque lecture. */
+    private static final class JmxView implements DynamicMBean {
+        private final Metrics metrics;
+
+        JmxView(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override public Object getAttribute(String name) throws AttributeNotFoundException {
+            Number v = metrics.snapshot().get(name);
+            if (v == null) throw new AttributeNotFoundException(name);
+            return v;
+        }
+
+        @Override public AttributeList getAttributes(String[] names) {
+            SortedMap<String, Number> snap = metrics.snapshot();
+            AttributeList list = new AttributeList();
+            for (String n : names) {
+                Number v = snap.get(n);
+                if (v != null) list.add(new Attribute(n, v));
+            }
+            return list;
+        }
+
+        @Override public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Métriques en lecture seule: " + attribute.getName());
+        }
+
+        @Override public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override public Object invoke(String action, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(action);
+        }
+
+        @Override public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (Map.Entry<String, Number> e : metrics.snapshot().entrySet()) {
+                attrs.add(new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(),
+                        e.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Métriques du nœud P2P",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package sn.uasz.group2.p2p;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Recherche sur tout le réseau : SEARCH est envoyé à tous les pairs en
+ * parallèle, chacun avec son délai maximal, et les résultats sont regroupés
+ * par SHA-256 (un même contenu chez plusieurs pairs, éventuellement sous des
+ * noms différents) puis classés par nombre de sources. Le listener reçoit
+ * le classement à jour après chaque réponse, sans attendre les pairs lents.
+ *
+ * Un pair dont le {@link ContentSummary} (reçu dans sa balise, ou demandé
+ * une fois par version de son catalogue par SUMMARY) exclut la requête
+ * n'est pas contacté : une recherche précise (sha:, mot rare) ne touche
+ * que les quelques pairs susceptibles de répondre. Un résumé manquant est
+ * demandé à part (une demande à la fois par pair) et attendu au plus
+ * summaryWaitMs : au-delà, le pair est interrogé sans lui, et le résumé
+ * servira aux recherches suivantes.
+ */
+public class NetworkSearch implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(NetworkSearch.class.getName());
+
+    private static final int MAX_PARALLEL = 32;
+
+    private static final Metrics.Counter PEERS_SKIPPED = Metrics.global().counter("search.peers.skipped");
+    private static final Metrics.Counter SUMMARIES_FETCHED = Metrics.global().counter("search.summaries.fetched");
+
+    private final PeerClient client;
+    private final int timeoutMs;
+    private final ThreadPoolExecutor pool;
+    /** SUMMARY à part : une recherche n'attend jamais une demande de résumé plus que summaryWaitMs. */
+    private final ThreadPoolExecutor summaryPool;
+    private final int summaryWaitMs;
+    private final Map<PeerInfo, CompletableFuture<ContentSummary>> summaryFetches = new ConcurrentHashMap<>();
+
+    /** Suivi d'une recherche ; appelé depuis les threads de recherche. */
+    public interface Listener {
+        /** Un pair a répondu : classement cumulé de tous les résultats reçus jusqu'ici. */
+        void onResults(PeerInfo peer, int peerHits, List<Hit> ranking);
+
+        default void onPeerFailed(PeerInfo peer, Exception e) {}
+
+        /** Pair écarté sans connexion : son résumé exclut la requête. */
+        default void onPeerSkipped(PeerInfo peer) {}
+
+        /** Tous les pairs ont répondu, échoué ou dépassé le délai. */
+        default void onComplete(List<Hit> ranking) {}
+    }
+
+    /** Un contenu trouvé (SHA-256) et les pairs qui le partagent. */
+    public static final class Hit {
+        private final FileMetadata meta;
+        private final List<SwarmDownloader.Source> sources;
+
+        Hit(FileMetadata meta, List<SwarmDownloader.Source> sources) {
+            this.meta = meta;
+            this.sources = sources;
+        }
+
+        /** Métadonnées telles qu'annoncées par la première source. */
+        public FileMetadata getMetadata() { return meta; }
+        public List<SwarmDownloader.Source> getSources() { return sources; }
+        public int getSourceCount() { return sources.size(); }
+
+        @Override public String toString() {
+            return meta + " — " + sources.size() + " source(s)";
+        }
+    }
+
+    /** @param timeoutMs délai maximal par pair (connexion et réponse) */
+    public NetworkSearch(int timeoutMs) {
+        this.client = new PeerClient(timeoutMs);
+        this.timeoutMs = timeoutMs;
+        this.summaryWaitMs = Math.min(300, timeoutMs / 4);
+        this.pool = newPool("search-");
+        this.summaryPool = newPool("search-summary-");
+    }
+
+    private static ThreadPoolExecutor newPool(String prefix) {
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor p = new ThreadPoolExecutor(MAX_PARALLEL, MAX_PARALLEL, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, prefix + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        p.allowCoreThreadTimeOut(true);
+        return p;
+    }
+
+    /**
+     * Lance la recherche (voir {@link SearchIndex.Query} pour la syntaxe) chez
+     * tous les pairs. Le résultat final est disponible au plus tard après
+     * le délai par pair et l'attente d'un résumé (plus la file d'attente si
+     * plus de 32 pairs).
+     */
+    public CompletableFuture<List<Hit>> search(Collection<PeerInfo> peers, String query, int limitPerPeer,
+                                               Listener listener) {
+        Aggregate agg = new Aggregate();
+        SearchIndex.Query q;
+        try {
+            q = SearchIndex.Query.parse(query);
+        } catch (RuntimeException e) {
+            q = null; // requête refusée par les pairs eux-mêmes (ERR BadRequest)
+        }
+        final SearchIndex.Query parsed = q;
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (PeerInfo p : peers) {
+            tasks.add(CompletableFuture.runAsync(() -> {
+                if (parsed != null && !mightMatch(p, parsed)) {
+                    PEERS_SKIPPED.inc();
+                    listener.onPeerSkipped(p);
+                    return;
+                }
+                List<FileMetadata> found = new ArrayList<>();
+                try {
+                    client.search(p.address, p.port, query, limitPerPeer, found::add);
+                } catch (Exception e) {
+                    log.fine("Recherche échouée chez " + p + ": " + e.getMessage());
+                    listener.onPeerFailed(p, e);
+                    return;
+                }
+                List<Hit> ranking = agg.add(p, found);
+                if (ranking != null) listener.onResults(p, found.size(), ranking);
+            }, pool));
+        }
+        long waves = Math.max(1, (peers.size() + MAX_PARALLEL - 1) / MAX_PARALLEL);
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]))
+                .completeOnTimeout(null, waves * (timeoutMs + summaryWaitMs) + 500, TimeUnit.MILLISECONDS)
+                .thenApply(v -> {
+                    List<Hit> ranking = agg.finish();
+                    listener.onComplete(ranking);
+                    return ranking;
+                });
+    }
+
+    /**
+     * Faux si le résumé du pair exclut la requête. Sans résumé (ancien pair,
+     * -Dp2p.summary=off, SUMMARY en échec ou en retard), le pair est interrogé.
+     */
+    private boolean mightMatch(PeerInfo p, SearchIndex.Query q) {
+        ContentSummary summary = p.getSummary();
+        if (summary == null && p.isSummaryFetchable()) {
+            try {
+                summary = fetchSummary(p).get(summaryWaitMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.fine("Résumé de " + p + " en retard : pair interrogé sans attendre");
+                return true;
+            } catch (ExecutionException e) {
+                log.fine("Résumé indisponible chez " + p + ": " + e.getCause().getMessage());
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return true;
+            }
+        }
+        return summary == null || summary.mightMatch(q);
+    }
+
+    /** Demande SUMMARY en cours pour ce pair, ou une nouvelle ; le résumé reçu est gardé dans PeerInfo. */
+    private CompletableFuture<ContentSummary> fetchSummary(PeerInfo p) {
+        CompletableFuture<ContentSummary> f = summaryFetches.computeIfAbsent(p, k -> {
+            long epoch = p.getIndexEpoch(), generation = p.getIndexGeneration();
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    ContentSummary summary = client.summary(p.address, p.port);
+                    SUMMARIES_FETCHED.inc();
+                    p.setSummary(summary, epoch, generation);
+                    return summary;
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, summaryPool);
+        });
+        f.whenComplete((summary, e) -> summaryFetches.remove(p, f)); // échec : redemandé à la prochaine recherche
+        return f;
+    }
+
+    /** Résultats regroupés par SHA-256 ; figé après finish() (réponses tardives ignorées). */
+    private static final class Aggregate {
+        private final Map<String, FileMetadata> metaBySha = new LinkedHashMap<>();
+        private final Map<String, List<SwarmDownloader.Source>> sourcesBySha = new LinkedHashMap<>();
+        private boolean finished;
+
+        synchronized List<Hit> add(PeerInfo peer, List<FileMetadata> found) {
+            if (finished) return null;
+            for (FileMetadata fm : found) {
+                String sha = fm.getSha256Hex();
+                metaBySha.putIfAbsent(sha, fm);
+                List<SwarmDownloader.Source> sources = sourcesBySha.computeIfAbsent(sha, k -> new ArrayList<>());
+                boolean known = false;
+                for (SwarmDownloader.Source s : sources) known |= s.peer.equals(peer);
+                if (!known) sources.add(new SwarmDownloader.Source(peer, fm.getName()));
+            }
+            return ranking();
+        }
+
+        synchronized List<Hit> finish() {
+            finished = true;
+            return ranking();
+        }
+
+        /** Copie classée : plus de sources d'abord, puis par nom. */
+        private List<Hit> ranking() {
+            List<Hit> hits = new ArrayList<>(metaBySha.size());
+            for (Map.Entry<String, FileMetadata> e : metaBySha.entrySet()) {
+                hits.add(new Hit(e.getValue(), new ArrayList<>(sourcesBySha.get(e.getKey()))));
+            }
+            hits.sort((a, b) -> a.getSourceCount() != b.getSourceCount()
+                    ? Integer.compare(b.getSourceCount(), a.getSourceCount())
+                    : a.getMetadata().getName().compareTo(b.getMetadata().getName()));
+            return hits;
+        }
+    }
+
+    /** Arrête les recherches en cours : les réponses encore en lecture chez un pair lent sont coupées. */
+    @Override public void close() {
+        pool.shutdownNow();
+        summaryPool.shutdownNow();
+        client.closeAll();
+    }
+}
@@ -2,73 +2,703 @@ package sn.uasz.group2.p2p;
 
 import java.io.*;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
-/** Client pour contacter un pair. */
-public class PeerClient {
+/**
+ * Client pour contacter un pair. Les requêtes passent par des connexions
+ * persistantes réutilisées (voir {@link PeerConnectionPool}) quand le pair
+ * les accepte.
+ */
+public class PeerClient implements AutoCloseable {
     private static final Logger log = Logger.getLogger(PeerClient.class.getName());
 
-    public List<FileMetadata> list(InetAddress host, int port) throws IOException, ClassNotFoundException {
-        try (Socket s = new Socket(host, port);
-             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream()));
-             InputStream in = s.getInputStream()) {
-            out.write("LIST\n");
-            out.flush();
-            ObjectInputStream ois = new ObjectInputStream(in);
-            Object obj = ois.readObject();
-            @SuppressWarnings("unchecked")
-            List<FileMetadata> list = (List<FileMetadata>) obj;
-            return new ArrayList<>(list);
+    /** Progression persistée tous les N octets reçus (après fsync du .part). */
+    private static final long CHECKPOINT_BYTES = 8L * 1024 * 1024;
+    private static final int MAX_CHUNK_RETRIES = 3;
+    /** Requêtes GET envoyées d'avance sur la connexion par downloadAll(). */
+    private static final int PIPELINE_WINDOW = 32;
+
+    // Métriques côté client (voir Metrics)
+    static final Metrics.Meter BYTES_RECEIVED = Metrics.global().meter("client.bytes.received");
+    static final Metrics.Counter DOWNLOADS = Metrics.global().counter("client.downloads");
+    static final Metrics.Counter FAILURES = Metrics.global().counter("client.download.failures");
+    static final Metrics.Counter CHECKSUM_MISMATCHES = Metrics.global().counter("client.checksum.mismatches");
+    static final Metrics.Counter CORRUPT_CHUNKS = Metrics.global().counter("client.chunks.corrupt");
+    static final Metrics.Histogram THROUGHPUT = Metrics.global().histogram("client.download.throughput_kibps");
+    private static final int MAX_SUMMARY_BYTES = 16 << 20;
+    static final Metrics.Counter CATALOGS_UP_TO_DATE = Metrics.global().counter("client.catalog.upToDate");
+
+    private final PeerConnectionPool pool;
+    /** Pairs qui ont répondu ERR BadCommand à GETHASH (anciennes versions). */
+    private final Set<InetSocketAddress> noGetHash = ConcurrentHashMap.newKeySet();
+    /** Pairs qui ont répondu ERR BadCommand à une commande préfixée par ENC. */
+    private final Set<InetSocketAddress> noCompression = ConcurrentHashMap.newKeySet();
+    /** Codec proposé pour les transferts (-Dp2p.compression, "none" pour désactiver). */
+    private final String compression = System.getProperty("p2p.compression", "deflate");
+    /** Contenus déjà présents localement (null : toujours télécharger). */
+    private volatile LocalContentIndex localContent;
+
+    public PeerClient() {
+        this(0);
+    }
+
+    /** @param timeoutMs délai de connexion et de lecture par requête (0 = illimité) */
+    public PeerClient(int timeoutMs) {
+        this.pool = new PeerConnectionPool(timeoutMs);
+    }
+
+    /**
+     * Avant tout transfert, download() et le téléchargement multi-sources
+     * cherchent le contenu dans cet index et le servent localement s'il y est.
+     */
+    public void setLocalContent(LocalContentIndex localContent) {
+        this.localContent = localContent;
+    }
+
+    /** Crée dest depuis un contenu déjà présent localement ; false s'il faut le télécharger. */
+    boolean tryLocal(String sha256Hex, long size, Path dest) {
+        LocalContentIndex local = localContent;
+        return local != null && local.materialize(sha256Hex, size, dest);
+    }
+
+    /** Signale un fichier téléchargé et vérifié à l'index local. */
+    void recordDownload(Path dest, String sha256Hex) {
+        LocalContentIndex local = localContent;
+        if (local != null) local.record(dest, sha256Hex);
+    }
+
+    /** Métriques d'un pair (commande STATS, autorisée par défaut aux clients locaux seulement). */
+    public Map<String, String> stats(InetAddress host, int port) throws IOException {
+        try (PeerConnectionPool.Exchange x = pool.open(host, port, "STATS")) {
+            DataInputStream din = x.in();
+            String header = Wire.readLine(din);
+            if (header == null || !header.equals("OK")) {
+                throw new IOException("Serveur a répondu: " + header);
+            }
+            Map<String, String> stats = new LinkedHashMap<>();
+            for (String line; (line = Wire.readLine(din)) != null; ) {
+                int sp = line.indexOf(' ');
+                if (sp > 0) stats.put(line.substring(0, sp), line.substring(sp + 1));
+            }
+            return stats;
         }
     }
 
-    public Path download(InetAddress host, int port, String filename, Path destDir) throws IOException {
-        Files.createDirectories(destDir);
-        Path dest = destDir.resolve(filename);
-        try (Socket s = new Socket(host, port);
-             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream()));
-             BufferedReader rdr = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
-
-            out.write("GET " + filename + "\n");
-            out.flush();
-            String header = rdr.readLine();
+    /** Résumé du contenu d'un pair (commande SUMMARY), quand sa balise ne le porte pas. */
+    public ContentSummary summary(InetAddress host, int port) throws IOException {
+        try (PeerConnectionPool.Exchange x = pool.open(host, port, "SUMMARY")) {
+            DataInputStream din = x.in();
+            String header = Wire.readLine(din);
             if (header == null || !header.equals("OK")) {
                 throw new IOException("Serveur a répondu: " + header);
             }
-            DataInputStream din = new DataInputStream(s.getInputStream());
-            long length = din.readLong();
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(dest))) {
-                byte[] buf = new byte[8192];
-                long remaining = length;
-                while (remaining > 0) {
-                    int n = din.read(buf, 0, (int)Math.min(buf.length, remaining));
-                    if (n == -1) throw new EOFException("Flux terminé prématurément");
-                    fileOut.write(buf, 0, n);
-                    md.update(buf, 0, n);
-                    remaining -= n;
+            int length = din.readInt();
+            if (length < 0 || length > MAX_SUMMARY_BYTES) throw new IOException("Résumé trop gros: " + length + " octets");
+            byte[] data = new byte[length];
+            din.readFully(data);
+            return ContentSummary.decode(data);
+        }
+    }
+
+    public List<FileMetadata> list(InetAddress host, int port) throws IOException {
+        List<FileMetadata> list = new ArrayList<>();
+        list(host, port, list::add);
+        return list;
+    }
+
+    /** Catalogue complet, décodé au fil de l'eau : chaque entrée est passée au consumer dès sa lecture. */
+    public void list(InetAddress host, int port, Consumer<FileMetadata> consumer) throws IOException {
+        listPage(host, port, -1, null, consumer);
+    }
+
+    /**
+     * Une page du catalogue : au plus {@code limit} entrées (toutes si négatif)
+     * dont le nom suit {@code afterName} (depuis le début si null). Pour la
+     * page suivante, repasser le nom de la dernière entrée reçue.
+     * Renvoie le nombre total d'entrées chez le pair (tout le catalogue, pas
+     * seulement cette page), tel qu'au début de la réponse.
+     */
+    public long listPage(InetAddress host, int port, int limit, String afterName,
+                         Consumer<FileMetadata> consumer) throws IOException {
+        String cmd = "LIST";
+        if (limit >= 0) cmd += " " + limit + (afterName != null ? " " + afterName : "");
+        try (PeerConnectionPool.Exchange x = pool.open(host, port, cmd)) {
+            CatalogCodec.Reader r = new CatalogCodec.Reader(x.in());
+            while (r.advance()) {
+                if (r.getMetadata() != null) consumer.accept(r.getMetadata());
+            }
+            return r.getTotal();
+        }
+    }
+
+    /**
+     * Recherche chez un pair (SEARCH, voir {@link SearchIndex.Query} pour la
+     * syntaxe) : au plus {@code limit} résultats passés au consumer.
+     * Renvoie le nombre de résultats.
+     */
+    public long search(InetAddress host, int port, String query, int limit,
+                       Consumer<FileMetadata> consumer) throws IOException {
+        try (PeerConnectionPool.Exchange x = pool.open(host, port, "SEARCH " + limit + " " + query)) {
+            PushbackInputStream in = new PushbackInputStream(x.in(), 1);
+            int first = in.read();
+            if (first == 'E') { // "ERR ..." au lieu d'un catalogue
+                String err = "E" + Wire.readLine(in);
+                if (err.equals("ERR BadCommand")) return searchInList(host, port, query, limit, consumer);
+                throw new IOException("Serveur a répondu: " + err);
+            }
+            if (first >= 0) in.unread(first);
+            CatalogCodec.Reader r = new CatalogCodec.Reader(in);
+            while (r.advance()) consumer.accept(r.getMetadata());
+            return r.getTotal();
+        }
+    }
+
+    /** Pair sans SEARCH : catalogue complet filtré ici avec la même syntaxe de requête. */
+    private long searchInList(InetAddress host, int port, String query, int limit,
+                              Consumer<FileMetadata> consumer) throws IOException {
+        SearchIndex.Query q;
+        try {
+            q = SearchIndex.Query.parse(query);
+        } catch (RuntimeException e) {
+            throw new IOException("Requête invalide: " + query, e);
+        }
+        long[] n = {0};
+        list(host, port, fm -> {
+            if (n[0] < limit && q.matches(fm)) {
+                n[0]++;
+                consumer.accept(fm);
+            }
+        });
+        return n[0];
+    }
+
+    /**
+     * Met à jour la copie locale du catalogue d'un pair : LIST SINCE si l'on a
+     * déjà une génération, le pair renvoyant seulement les changements (ou
+     * un catalogue complet s'il ne peut plus les fournir).
+     * Renvoie le nombre d'entrées reçues.
+     */
+    public int sync(InetAddress host, int port, RemoteCatalog catalog) throws IOException {
+        String cmd = catalog.isEmpty()
+                ? "LIST"
+                : "LIST SINCE " + catalog.getGeneration() + " " + catalog.getEpoch();
+        try (PeerConnectionPool.Exchange x = pool.open(host, port, cmd)) {
+            CatalogCodec.Reader r = new CatalogCodec.Reader(x.in());
+            synchronized (catalog) {
+                try {
+                    if (!r.isDelta()) catalog.reset();
+                    int n = 0;
+                    while (r.advance()) {
+                        catalog.apply(r.getName(), r.getMetadata());
+                        n++;
+                    }
+                    catalog.setVersion(r.getEpoch(), r.getGeneration());
+                    return n;
+                } catch (IOException e) {
+                    catalog.invalidate(); // copie partielle : catalogue complet au prochain appel
+                    throw e;
                 }
-            } catch (Exception e) {
-                try { Files.deleteIfExists(dest); } catch (IOException ignore) {}
-                throw e;
-            }
-            // vérifier checksum
-            byte[] expected = din.readNBytes(32);
-            String got = CryptoUtils.bytesToHex(md.digest());
-            String exp = CryptoUtils.bytesToHex(expected);
-            if (!got.equals(exp)) {
-                try { Files.deleteIfExists(dest); } catch (IOException ignore) {}
-                throw new IOException("Checksum invalide: attendu " + exp + ", reçu " + got);
-            }
-            log.info("Téléchargé: " + dest + " (" + length + " octets) OK");
-            return dest;
+            }
+        }
+    }
+
+    /**
+     * Comme {@link #sync(InetAddress, int, RemoteCatalog)}, sans connexion
+     * si la balise du pair annonce la version déjà en cache (renvoie alors 0).
+     */
+    public int sync(PeerInfo peer, RemoteCatalog catalog) throws IOException {
+        if (catalog.isCurrent(peer)) {
+            CATALOGS_UP_TO_DATE.inc();
+            return 0;
+        }
+        return sync(peer.address, peer.port, catalog);
+    }
+
+    /**
+     * Télécharge un fichier avec reprise et vérification bloc par bloc :
+     * la liste des SHA-256 de blocs (CHUNKS) est demandée d'abord, chaque bloc
+     * reçu est vérifié puis écrit dans "nom.part", et un bloc corrompu est
+     * re-demandé seul. La progression (dernier bloc vérifié) est enregistrée
+     * dans "nom.part.state" : après une coupure, un nouvel appel revérifie les
+     * blocs déjà présents et repart du premier bloc manquant ou invalide.
+     * Si le contenu annoncé est déjà sur la machine (voir
+     * {@link #setLocalContent}), rien d'autre que CHUNKS ne passe sur le réseau.
+     */
+    public Path download(InetAddress host, int port, String filename, Path destDir) throws IOException {
+        return download(host, port, filename, destDir, null, -1);
+    }
+
+    /**
+     * Comme {@link #download(InetAddress, int, String, Path)} pour un contenu
+     * dont le SHA-256 et la taille sont déjà connus (catalogue, recherche) :
+     * s'il est déjà sur la machine, le pair n'est pas contacté du tout.
+     */
+    public Path download(InetAddress host, int port, String filename, Path destDir,
+                         String sha256Hex, long size) throws IOException {
+        Path dest = localPath(destDir, filename);
+        Path part = dest.resolveSibling(dest.getFileName() + ".part");
+        Path statePath = dest.resolveSibling(dest.getFileName() + ".part.state");
+        long t0 = System.nanoTime();
+        if (sha256Hex != null && tryLocal(sha256Hex, size, dest)) {
+            discardPart(part, statePath);
+            return completed(dest, t0);
+        }
+        try {
+            MerkleTree tree = fetchChunkHashes(host, port, filename);
+            if (tree == null) {
+                return completed(downloadWhole(host, port, filename, dest), t0); // ancien pair sans CHUNKS/GETRANGE
+            }
+            if (tryLocal(tree.getFileSha256Hex(), tree.getFileSize(), dest)) {
+                discardPart(part, statePath);
+                return completed(dest, t0);
+            }
+            PartState state = PartState.load(statePath, part);
+            if (!tree.getFileSha256Hex().equals(state.sha256Hex)) {
+                if (state.offset > 0) log.info("Contenu distant modifié, reprise abandonnée: " + filename);
+                state = new PartState();
+            }
+            return completed(downloadChunks(host, port, filename, dest, part, statePath, state, tree), t0);
         } catch (Exception e) {
+            FAILURES.inc();
             throw new IOException("Download failed: " + e.getMessage(), e);
         }
     }
+
+    /** Compte un téléchargement réussi (débit moyen depuis t0, en Kio/s). */
+    static Path completed(Path dest, long t0) throws IOException {
+        long nanos = Math.max(1, System.nanoTime() - t0);
+        DOWNLOADS.inc();
+        THROUGHPUT.record((long) (Files.size(dest) * 1e9 / nanos / 1024));
+        return dest;
+    }
+
+    /** Liste des SHA-256 de blocs d'un fichier distant, ou null si le pair ne connaît pas CHUNKS. */
+    public MerkleTree fetchChunkHashes(InetAddress host, int port, String filename) throws IOException {
+        try (PeerConnectionPool.Exchange x = pool.open(host, port, "CHUNKS " + filename)) {
+            DataInputStream din = x.in();
+            String header = Wire.readLine(din);
+            if ("ERR BadCommand".equals(header)) return null;
+            if (header == null || !header.equals("OK")) {
+                throw new IOException("Serveur a répondu: " + header);
+            }
+            return MerkleTree.readFrom(din);
+        }
+    }
+
+    private Path downloadChunks(InetAddress host, int port, String filename, Path dest, Path part,
+                                Path statePath, PartState state, MerkleTree tree) throws Exception {
+        String exp = tree.getFileSha256Hex();
+        state.sha256Hex = exp;
+        state.size = tree.getFileSize();
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] chunk = new byte[tree.getChunkSize()];
+        long t0 = System.nanoTime();
+        long transferred = 0, wireBytes = 0;
+
+        // En cas d'erreur réseau, le .part et son état restent en place pour la reprise
+        try (FileChannel fc = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            int first = verifyPrefix(fc, tree, state.offset, md, chunk);
+            long offset = tree.chunkOffset(first);
+            fc.truncate(offset);
+
+            if (first < tree.getChunkCount()) {
+                String cmd = "GETRANGE " + offset + " " + Long.MAX_VALUE + " " + filename;
+                try (ContentReply r = openContent(host, port, cmd)) {
+                    DataInputStream din = r.in();
+                    long size = din.readLong();
+                    String sha = CryptoUtils.bytesToHex(din.readNBytes(32));
+                    long count = din.readLong();
+                    if (!sha.equals(exp) || size != tree.getFileSize() || offset + count != size) {
+                        throw new IOException("Contenu distant modifié pendant le transfert");
+                    }
+                    DataInputStream content = new DataInputStream(r.content(count));
+
+                    long sinceCheckpoint = 0;
+                    for (int i = first; i < tree.getChunkCount(); i++) {
+                        int len = tree.chunkLength(i);
+                        content.readFully(chunk, 0, len);
+                        BYTES_RECEIVED.mark(len);
+                        if (Thread.currentThread().isInterrupted()) {
+                            // pause ou annulation : le .part reste, reprise au dernier point de contrôle
+                            throw new InterruptedIOException("Téléchargement interrompu: " + filename);
+                        }
+                        if (!tree.verifyChunk(i, chunk, 0, len)) {
+                            CORRUPT_CHUNKS.inc();
+                            log.warning("Bloc " + i + " corrompu, nouvelle demande: " + filename);
+                            refetchChunk(host, port, filename, tree, i, chunk);
+                        }
+                        writeFully(fc, chunk, len, tree.chunkOffset(i));
+                        md.update(chunk, 0, len);
+                        sinceCheckpoint += len;
+                        if (sinceCheckpoint >= CHECKPOINT_BYTES) {
+                            fc.force(false);
+                            state.offset = tree.chunkOffset(i) + len;
+                            state.save(statePath);
+                            sinceCheckpoint = 0;
+                        }
+                    }
+                    transferred = count;
+                    wireBytes = r.wireBytes(count);
+                }
+            }
+            fc.force(false);
+        }
+
+        String got = CryptoUtils.bytesToHex(md.digest());
+        if (!got.equals(exp)) {
+            CHECKSUM_MISMATCHES.inc();
+            discardPart(part, statePath);
+            throw new IOException("Checksum invalide: attendu " + exp + ", reçu " + got);
+        }
+        Files.move(part, dest, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(statePath);
+        recordDownload(dest, exp);
+        double secs = (System.nanoTime() - t0) / 1e9;
+        log.info(String.format("Téléchargé: %s (%d octets) OK — %d octets reçus pour %d (%.0f %%), %.1f Mo/s effectifs",
+                dest, tree.getFileSize(), wireBytes, transferred,
+                transferred == 0 ? 100.0 : 100.0 * wireBytes / transferred, transferred / secs / (1024 * 1024)));
+        return dest;
+    }
+
+    /**
+     * Revérifie les blocs déjà présents dans le .part (jusqu'à l'offset
+     * enregistré) et alimente le digest global. Renvoie l'indice du premier
+     * bloc à télécharger.
+     */
+    private static int verifyPrefix(FileChannel fc, MerkleTree tree, long offset, MessageDigest md,
+                                    byte[] chunk) throws IOException {
+        int i = 0;
+        for (; i < tree.getChunkCount(); i++) {
+            int len = tree.chunkLength(i);
+            if (tree.chunkOffset(i) + len > offset) break;
+            ByteBuffer buf = ByteBuffer.wrap(chunk, 0, len);
+            long pos = tree.chunkOffset(i);
+            while (buf.hasRemaining()) {
+                int n = fc.read(buf, pos);
+                if (n < 0) return i;
+                pos += n;
+            }
+            if (!tree.verifyChunk(i, chunk, 0, len)) return i;
+            md.update(chunk, 0, len);
+        }
+        return i;
+    }
+
+    /** Re-demande un seul bloc (GETRANGE) jusqu'à obtenir des octets valides. */
+    private void refetchChunk(InetAddress host, int port, String filename, MerkleTree tree, int i,
+                              byte[] chunk) throws IOException {
+        for (int attempt = 1; attempt <= MAX_CHUNK_RETRIES; attempt++) {
+            byte[] data = fetchRange(host, port, filename, tree.chunkOffset(i), tree.chunkLength(i),
+                    tree.getFileSha256Hex());
+            if (tree.verifyChunk(i, data, 0, data.length)) {
+                System.arraycopy(data, 0, chunk, 0, data.length);
+                return;
+            }
+        }
+        throw new IOException("Bloc " + i + " toujours invalide après " + MAX_CHUNK_RETRIES + " essais");
+    }
+
+    private static void writeFully(FileChannel fc, byte[] data, int len, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, len);
+        while (buf.hasRemaining()) pos += fc.write(buf, pos);
+    }
+
+    /**
+     * Récupère les octets [offset, offset + length) d'un fichier distant via
+     * GETRANGE. Échoue si le pair annonce un autre SHA-256 que celui attendu
+     * (contenu différent sous le même nom) ou renvoie moins d'octets.
+     */
+    public byte[] fetchRange(InetAddress host, int port, String filename, long offset, int length,
+                             String expectedSha256Hex) throws IOException {
+        try (ContentReply r = openContent(host, port, "GETRANGE " + offset + " " + length + " " + filename)) {
+            return readRange(r, length, expectedSha256Hex);
+        }
+    }
+
+    /**
+     * Comme {@link #fetchRange}, mais le contenu est désigné par son SHA-256
+     * (GETHASH) : le pair le sert même s'il a renommé ou déplacé le fichier.
+     * {@code filename} n'est utilisé que pour les pairs sans GETHASH.
+     */
+    public byte[] fetchContentRange(InetAddress host, int port, String sha256Hex, String filename,
+                                    long offset, int length) throws IOException {
+        InetSocketAddress peer = new InetSocketAddress(host, port);
+        if (!noGetHash.contains(peer)) {
+            try (ContentReply r = openContent(host, port, "GETHASH " + sha256Hex + " " + offset + " " + length)) {
+                if (r.isOk()) return readRange(r, length, sha256Hex);
+                if (!"ERR BadCommand".equals(r.header)) throw new IOException("Serveur a répondu: " + r.header);
+            }
+            noGetHash.add(peer);
+            log.fine("Pair sans GETHASH: " + peer);
+        }
+        return fetchRange(host, port, filename, offset, length, sha256Hex);
+    }
+
+    /** Suite d'une réponse GETRANGE/GETHASH après "OK" : exactement {@code length} octets attendus. */
+    private static byte[] readRange(ContentReply r, int length, String expectedSha256Hex) throws IOException {
+        DataInputStream din = r.in();
+        din.readLong(); // taille totale
+        String sha = CryptoUtils.bytesToHex(din.readNBytes(32));
+        if (expectedSha256Hex != null && !sha.equalsIgnoreCase(expectedSha256Hex)) {
+            throw new IOException("Contenu différent chez le pair: " + sha);
+        }
+        long count = din.readLong();
+        if (count != length) throw new EOFException("Plage incomplète: " + count + "/" + length);
+        byte[] data = new byte[length];
+        new DataInputStream(r.content(count)).readFully(data);
+        BYTES_RECEIVED.mark(length);
+        return data;
+    }
+
+    /**
+     * Envoie une commande de transfert en proposant la compression (préfixe
+     * ENC, voir {@link Compression}) ; un pair qui ne connaît pas ENC est
+     * mémorisé et la commande renvoyée telle quelle. L'en-tête est déjà lu.
+     */
+    private ContentReply openContent(InetAddress host, int port, String command) throws IOException {
+        InetSocketAddress peer = new InetSocketAddress(host, port);
+        boolean enc = Compression.get(compression) != null && !noCompression.contains(peer);
+        PeerConnectionPool.Exchange x = pool.open(host, port, enc ? "ENC " + compression + " " + command : command);
+        String header;
+        try {
+            header = Wire.readLine(x.in());
+        } catch (IOException e) {
+            x.close();
+            throw e;
+        }
+        if (enc && "ERR BadCommand".equals(header)) {
+            x.close();
+            noCompression.add(peer);
+            log.fine("Pair sans compression: " + peer);
+            return openContent(host, port, command);
+        }
+        return new ContentReply(x, header);
+    }
+
+    /** Réponse d'une commande de transfert : "OK" (brut) ou "OK codec" (contenu en blocs). */
+    private static final class ContentReply implements Closeable {
+        final String header;
+        private final PeerConnectionPool.Exchange x;
+        private Compression.BlockInputStream blocks;
+
+        ContentReply(PeerConnectionPool.Exchange x, String header) {
+            this.x = x;
+            this.header = header;
+        }
+
+        boolean isOk() {
+            return header != null && (header.equals("OK") || header.startsWith("OK "));
+        }
+
+        /** En-tête de la réponse (taille, SHA-256...) ; échoue si le pair a répondu une erreur. */
+        DataInputStream in() throws IOException {
+            if (!isOk()) throw new IOException("Serveur a répondu: " + header);
+            return x.in();
+        }
+
+        /** Les {@code count} octets d'origine, décompressés au besoin. */
+        InputStream content(long count) throws IOException {
+            if (header.equals("OK")) return in();
+            Compression.Codec codec = Compression.get(header.substring(3));
+            if (codec == null) throw new IOException("Codec inconnu: " + header);
+            blocks = new Compression.BlockInputStream(in(), codec, count);
+            return blocks;
+        }
+
+        /** Octets reçus sur le réseau pour les {@code count} octets de contenu. */
+        long wireBytes(long count) {
+            return blocks != null ? blocks.getWireBytes() : count;
+        }
+
+        @Override public void close() throws IOException {
+            if (blocks != null) blocks.close();
+            x.close();
+        }
+    }
+
+    /** GET historique (fichier entier, sans reprise) pour les pairs qui ne connaissent pas CHUNKS/GETRANGE. */
+    private Path downloadWhole(InetAddress host, int port, String filename, Path dest) throws Exception {
+        try (PeerConnectionPool.Exchange x = pool.open(host, port, "GET " + filename)) {
+            recordDownload(dest, receiveWhole(x.in(), dest));
+            return dest;
+        }
+    }
+
+    /**
+     * Télécharge une série de petits fichiers d'un même pair sur une seule
+     * connexion : jusqu'à PIPELINE_WINDOW requêtes GET partent d'avance, sans
+     * attendre les réponses, qui reviennent dans l'ordre. Un fichier absent
+     * ou corrompu est journalisé et n'arrête pas les autres. Pour un pair sans
+     * connexions persistantes, download() fichier par fichier.
+     * Renvoie les fichiers effectivement téléchargés.
+     */
+    public List<Path> downloadAll(InetAddress host, int port, List<String> filenames, Path destDir) throws IOException {
+        Files.createDirectories(destDir);
+        List<String> names = new ArrayList<>();
+        List<Path> dests = new ArrayList<>();
+        for (String name : filenames) {
+            try {
+                dests.add(localPath(destDir, name));
+                names.add(name);
+            } catch (IOException e) {
+                log.warning(e.getMessage());
+            }
+        }
+        List<Path> done = new ArrayList<>();
+        try (PeerConnectionPool.Connection c = pool.openPipeline(host, port)) {
+            if (c == null) {
+                for (String name : names) {
+                    try {
+                        done.add(download(host, port, name, destDir));
+                    } catch (IOException e) {
+                        log.warning(name + ": " + e.getMessage());
+                    }
+                }
+                return done;
+            }
+            int[] ids = new int[names.size()];
+            int sent = 0;
+            for (int i = 0; i < names.size(); i++) {
+                while (sent < names.size() && sent < i + PIPELINE_WINDOW) {
+                    ids[sent] = c.send("GET " + names.get(sent));
+                    sent++;
+                }
+                c.flush();
+                Wire.FrameInputStream frames = c.response(ids[i]);
+                long t0 = System.nanoTime();
+                try {
+                    recordDownload(dests.get(i), receiveWhole(new DataInputStream(frames), dests.get(i)));
+                    done.add(completed(dests.get(i), t0));
+                } catch (IOException e) {
+                    FAILURES.inc();
+                    log.warning(names.get(i) + ": " + e.getMessage());
+                }
+                if (!frames.finish()) throw new IOException("Réponse incomplète pour " + names.get(i));
+            }
+        }
+        return done;
+    }
+
+    /** Réponse GET : "OK\n", taille, contenu écrit dans dest, SHA-256 vérifié à la fin et renvoyé. */
+    private static String receiveWhole(DataInputStream din, Path dest) throws IOException {
+        String header = Wire.readLine(din);
+        if (header == null || !header.equals("OK")) {
+            throw new IOException("Serveur a répondu: " + header);
+        }
+        long length = din.readLong();
+        MessageDigest md = sha256();
+        try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(dest))) {
+            byte[] buf = new byte[8192];
+            long remaining = length;
+            while (remaining > 0) {
+                int n = din.read(buf, 0, (int)Math.min(buf.length, remaining));
+                if (n == -1) throw new EOFException("Flux terminé prématurément");
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Téléchargement interrompu");
+                fileOut.write(buf, 0, n);
+                md.update(buf, 0, n);
+                remaining -= n;
+            }
+            BYTES_RECEIVED.mark(length);
+        } catch (IOException e) {
+            try { Files.deleteIfExists(dest); } catch (IOException ignore) {}
+            throw e;
+        }
+        // vérifier checksum
+        byte[] expected = din.readNBytes(32);
+        String got = CryptoUtils.bytesToHex(md.digest());
+        String exp = CryptoUtils.bytesToHex(expected);
+        if (!got.equals(exp)) {
+            CHECKSUM_MISMATCHES.inc();
+            try { Files.deleteIfExists(dest); } catch (IOException ignore) {}
+            throw new IOException("Checksum invalide: attendu " + exp + ", reçu " + got);
+        }
+        log.info("Téléchargé: " + dest + " (" + length + " octets) OK");
+        return got;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Ferme les connexions persistantes inactives. */
+    @Override public void close() {
+        pool.close();
+    }
+
+    /** Interrompt aussi les requêtes en cours (voir {@link PeerConnectionPool#closeAll}). */
+    public void closeAll() {
+        pool.closeAll();
+    }
+
+    /**
+     * Emplacement local d'un fichier distant : son chemin relatif ('/') sous
+     * destDir, dossiers parents créés. Refuse tout nom qui sortirait de destDir
+     * (chemin absolu, "..") : les noms viennent du pair, pas de l'utilisateur.
+     */
+    static Path localPath(Path destDir, String name) throws IOException {
+        Path base = destDir.toAbsolutePath().normalize();
+        Path dest = base.resolve(name).normalize();
+        if (!dest.startsWith(base) || dest.equals(base)) throw new IOException("Nom de fichier refusé: " + name);
+        Files.createDirectories(dest.getParent());
+        return dest;
+    }
+
+    private static void discardPart(Path part, Path statePath) {
+        try { Files.deleteIfExists(part); } catch (IOException ignore) {}
+        try { Files.deleteIfExists(statePath); } catch (IOException ignore) {}
+    }
+
+    /** Progression d'un téléchargement partiel (fichier .part.state). */
+    private static final class PartState {
+        String sha256Hex;
+        long size = -1;
+        long offset;
+
+        static PartState load(Path statePath, Path part) {
+            PartState st = new PartState();
+            if (!Files.isRegularFile(statePath) || !Files.isRegularFile(part)) return st;
+            Properties p = new Properties();
+            try (InputStream in = Files.newInputStream(statePath)) {
+                p.load(in);
+                st.sha256Hex = p.getProperty("sha256");
+                st.size = Long.parseLong(p.getProperty("size", "-1"));
+                // On ne fait confiance qu'aux octets déjà synchronisés sur disque
+                st.offset = Math.min(Long.parseLong(p.getProperty("offset", "0")), Files.size(part));
+                if (st.sha256Hex == null) st.offset = 0;
+            } catch (IOException | RuntimeException e) {
+                st = new PartState();
+            }
+            return st;
+        }
+
+        void save(Path statePath) throws IOException {
+            Properties p = new Properties();
+            p.setProperty("sha256", sha256Hex);
+            p.setProperty("size", Long.toString(size));
+            p.setProperty("offset", Long.toString(offset));
+            Path tmp = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+            try (OutputStream o = Files.newOutputStream(tmp)) {
+                p.store(o, null);
+            }
+            Files.move(tmp, statePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 }
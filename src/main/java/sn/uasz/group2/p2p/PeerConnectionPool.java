@@ -0,0 +1,308 @@
+package sn.uasz.group2.p2p;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Connexions persistantes (mode MUX, voir {@link Wire}) réutilisées d'une
+ * requête à l'autre, par pair. Une connexion n'est rendue au pool que si la
+ * réponse a été lue jusqu'au bout ; sinon elle est fermée. Les pairs qui
+ * refusent MUX (anciennes versions, qui répondent "ERR BadCommand") sont
+ * mémorisés et servis en une-commande-par-connexion.
+ *
+ * Les connexions inactives depuis plus de 30 s sont fermées par un balayage
+ * périodique, avant que le serveur ne les coupe de son côté (60 s par
+ * défaut) : pas de requête envoyée sur une connexion déjà fermée.
+ */
+public class PeerConnectionPool implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(PeerConnectionPool.class.getName());
+
+    private static final int MAX_IDLE_PER_PEER = 4;
+    /** Plus court que le délai d'inactivité du serveur (60 s par défaut). */
+    private static final long MAX_IDLE_MS = 30_000;
+
+    /** Balayage des connexions inactives, commun à tous les pools ; planifié seulement s'il y en a. */
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pool-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int timeoutMs;
+    private final Map<InetSocketAddress, Deque<Connection>> idle = new HashMap<>();
+    private boolean sweepScheduled;
+    private final Set<InetSocketAddress> legacyPeers = ConcurrentHashMap.newKeySet();
+    /** Toutes les sockets ouvertes par ce pool, inactives ou en cours d'utilisation. */
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+    public PeerConnectionPool() {
+        this(0);
+    }
+
+    /** @param timeoutMs délai de connexion et de lecture des sockets (0 = illimité) */
+    public PeerConnectionPool(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Envoie une commande et renvoie sa réponse. Une connexion réutilisée qui
+     * s'avère fermée par le pair est remplacée une fois (les commandes sont
+     * toutes en lecture seule, donc rejouables).
+     */
+    public Exchange open(InetAddress host, int port, String command) throws IOException {
+        InetSocketAddress peer = new InetSocketAddress(host, port);
+        if (legacyPeers.contains(peer)) return Exchange.oneShot(openSocket(peer), command);
+
+        Connection c = take(peer);
+        if (c != null) {
+            try {
+                return c.request(command);
+            } catch (IOException e) {
+                c.close(); // fermée côté serveur pendant l'inactivité
+            }
+        }
+        c = Connection.connect(peer, openSocket(peer));
+        if (c == null) {
+            legacyPeers.add(peer);
+            log.fine("Pair sans connexions persistantes: " + peer);
+            return Exchange.oneShot(openSocket(peer), command);
+        }
+        c.pool = this;
+        try {
+            return c.request(command);
+        } catch (IOException e) {
+            c.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Connexion dédiée (hors pool) pour enchaîner des requêtes sans attendre
+     * les réponses, ou null si le pair ne connaît pas MUX.
+     */
+    Connection openPipeline(InetAddress host, int port) throws IOException {
+        InetSocketAddress peer = new InetSocketAddress(host, port);
+        if (legacyPeers.contains(peer)) return null;
+        Connection c = Connection.connect(peer, openSocket(peer));
+        if (c == null) legacyPeers.add(peer);
+        return c;
+    }
+
+    private Socket openSocket(InetSocketAddress peer) throws IOException {
+        Socket s = new TrackedSocket();
+        sockets.add(s);
+        try {
+            s.connect(peer, timeoutMs);
+            s.setSoTimeout(timeoutMs);
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        return s;
+    }
+
+    private synchronized Connection take(InetSocketAddress peer) {
+        Deque<Connection> q = idle.get(peer);
+        long now = System.currentTimeMillis();
+        while (q != null && !q.isEmpty()) {
+            Connection c = q.pollLast();
+            if (now - c.idleSince < MAX_IDLE_MS) return c;
+            c.close();
+        }
+        return null;
+    }
+
+    private synchronized void release(Connection c) {
+        Deque<Connection> q = idle.computeIfAbsent(c.peer, k -> new ArrayDeque<>());
+        if (q.size() >= MAX_IDLE_PER_PEER) {
+            c.close();
+            return;
+        }
+        c.idleSince = System.currentTimeMillis();
+        q.addLast(c);
+        scheduleSweep();
+    }
+
+    private synchronized void scheduleSweep() {
+        if (sweepScheduled) return;
+        sweepScheduled = true;
+        SWEEPER.schedule(this::sweep, MAX_IDLE_MS / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /** Ferme les connexions inactives depuis plus de MAX_IDLE_MS ; replanifié tant qu'il en reste. */
+    private synchronized void sweep() {
+        sweepScheduled = false;
+        long now = System.currentTimeMillis();
+        for (Iterator<Deque<Connection>> it = idle.values().iterator(); it.hasNext(); ) {
+            Deque<Connection> q = it.next();
+            // Les plus anciennes en tête (addLast dans release, pollLast dans take)
+            while (!q.isEmpty() && now - q.peekFirst().idleSince >= MAX_IDLE_MS) q.pollFirst().close();
+            if (q.isEmpty()) it.remove();
+        }
+        if (!idle.isEmpty()) scheduleSweep();
+    }
+
+    /** Ferme les connexions inactives (le pool reste utilisable). */
+    @Override public synchronized void close() {
+        for (Deque<Connection> q : idle.values()) {
+            for (Connection c : q) c.close();
+        }
+        idle.clear();
+    }
+
+    /**
+     * Ferme toutes les connexions, y compris celles en cours d'utilisation :
+     * les lectures bloquées chez un pair lent échouent aussitôt. Le pool
+     * reste utilisable.
+     */
+    public void closeAll() {
+        close();
+        for (Socket s : sockets) {
+            try { s.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    /** Socket qui se retire de {@link #sockets} à sa fermeture. */
+    private final class TrackedSocket extends Socket {
+        @Override public synchronized void close() throws IOException {
+            sockets.remove(this);
+            super.close();
+        }
+    }
+
+    /** Connexion MUX vers un pair : requêtes numérotées, réponses lues dans l'ordre. */
+    public static final class Connection implements Closeable {
+        private final InetSocketAddress peer;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private PeerConnectionPool pool;
+        private int nextId;
+        private long idleSince;
+
+        private Connection(InetSocketAddress peer, Socket socket) throws IOException {
+            this.peer = peer;
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        /**
+         * Ouvre la connexion et négocie MUX ; null si le pair ne connaît pas
+         * MUX. Toute autre réponse (ERR Busy, connexion coupée) est une
+         * erreur passagère qui ne déclasse pas le pair.
+         */
+        static Connection connect(InetSocketAddress peer, Socket s) throws IOException {
+            try {
+                s.setTcpNoDelay(true);
+                Connection c = new Connection(peer, s);
+                c.out.write((Wire.MUX + "\n").getBytes());
+                c.out.flush();
+                String reply = Wire.readLine(c.in);
+                if (Wire.MUX_OK.equals(reply)) return c;
+                s.close();
+                if ("ERR BadCommand".equals(reply)) return null; // ancien pair : une commande par connexion
+                throw new IOException("Serveur a répondu: " + reply);
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+        }
+
+        /** Envoie une requête sans attendre sa réponse ; renvoie son id. */
+        int send(String command) throws IOException {
+            int id = nextId++;
+            out.writeInt(id);
+            out.writeUTF(command);
+            return id;
+        }
+
+        /** Pousse sur le réseau les requêtes envoyées par send(). */
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        /** Réponse de la requête id ; les réponses doivent être lues dans l'ordre des send(). */
+        Wire.FrameInputStream response(int id) {
+            return new Wire.FrameInputStream(in, id);
+        }
+
+        Exchange request(String command) throws IOException {
+            int id = send(command);
+            flush();
+            Wire.FrameInputStream frames = new Wire.FrameInputStream(in, id);
+            frames.awaitData(); // détecte tout de suite une connexion morte
+            return new Exchange(this, frames);
+        }
+
+        @Override public void close() {
+            try { socket.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    /** Une requête en cours : lire la réponse via in(), puis close(). */
+    public static final class Exchange implements Closeable {
+        private final Connection conn;
+        private final Wire.FrameInputStream frames;
+        private final Socket socket;
+        private final DataInputStream in;
+
+        private Exchange(Connection conn, Wire.FrameInputStream frames) {
+            this.conn = conn;
+            this.frames = frames;
+            this.socket = null;
+            this.in = new DataInputStream(frames);
+        }
+
+        private Exchange(Socket socket) throws IOException {
+            this.conn = null;
+            this.frames = null;
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        }
+
+        static Exchange oneShot(Socket s, String command) throws IOException {
+            try {
+                OutputStream out = s.getOutputStream();
+                out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                return new Exchange(s);
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+        }
+
+        public DataInputStream in() { return in; }
+
+        /** Rend la connexion au pool si la réponse est entièrement lue, sinon la ferme. */
+        @Override public void close() throws IOException {
+            if (socket != null) {
+                socket.close();
+                return;
+            }
+            boolean reusable;
+            try {
+                reusable = frames.finish() && conn.pool != null;
+            } catch (IOException e) {
+                reusable = false;
+            }
+            if (reusable) conn.pool.release(conn);
+            else conn.close();
+        }
+    }
+}
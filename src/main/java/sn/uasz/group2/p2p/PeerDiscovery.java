@@ -5,35 +5,108 @@ import java.io.IOException;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
-/** Découverte des pairs via UDP Multicast. */
+/**
+ * Découverte des pairs via UDP Multicast.
+ *
+ * Balise, toutes les 3 s : "HELLO <ip> <port> <époque> <génération> [<résumé>]",
+ * l'époque et la génération donnant la version du catalogue partagé
+ * ({@link SharedIndex#getEpoch()}, {@link SharedIndex#getGeneration()}) :
+ * un client ne refait LIST SINCE que si elle a bougé. Le résumé
+ * ({@link ContentSummary}, en Base64) permet d'écarter ce pair d'une
+ * recherche ; s'il dépasse 1 Kio, la balise porte "-" et le client le
+ * demande par SUMMARY. -Dp2p.summary=off : pas de résumé. Les anciennes
+ * balises "HELLO <ip> <port>" restent comprises (version inconnue).
+ */
 public class PeerDiscovery implements AutoCloseable {
     private static final Logger log = Logger.getLogger(PeerDiscovery.class.getName());
     public static final String GROUP = "230.0.0.1";
     public static final int PORT = 4446;
 
+    private static final Metrics.Meter BEACONS_SENT = Metrics.global().meter("discovery.beacons.sent");
+    private static final Metrics.Meter BEACONS_RECEIVED = Metrics.global().meter("discovery.beacons.received");
+
     private final int tcpPort;
     private final MulticastSocket socket;
     private final InetAddress group;
-    private final Map<String, PeerInfo> peers = new ConcurrentHashMap<>();
+    private static final long PEER_TIMEOUT_MS = 10_000;
+    /** Au-delà, le résumé n'est plus dans la balise (datagramme sous ~1 500 octets, sans fragmentation). */
+    static final int MAX_BEACON_SUMMARY_BYTES = 1024;
+    private static final boolean SEND_SUMMARY = !"off".equalsIgnoreCase(System.getProperty("p2p.summary", "on"));
+
+    private final SharedIndex index;
+    /**
+     * Pairs par ordre de dernière balise (chaque balise remet le pair en
+     * queue) : les expirés sont en tête, getPeers() n'en parcourt pas plus.
+     */
+    private final LinkedHashMap<String, PeerInfo> peers = new LinkedHashMap<>();
+    /** Copie rendue par getPeers(), refaite seulement quand la liste des pairs change. */
+    private List<PeerInfo> snapshot = Collections.emptyList();
     private Thread recvThread, sendThread;
     private volatile boolean running = true;
+    private final java.util.function.LongSupplier peerCount = () -> getPeers().size();
 
     public PeerDiscovery(int tcpPort) throws IOException {
+        this(tcpPort, null);
+    }
+
+    /** {@code index} : catalogue dont la version est annoncée (null : aucune). */
+    public PeerDiscovery(int tcpPort, SharedIndex index) throws IOException {
         this.tcpPort = tcpPort;
+        this.index = index;
         this.group = InetAddress.getByName(GROUP);
         this.socket = new MulticastSocket(PORT);
         this.socket.joinGroup(group);
         start();
+        Metrics.global().gauge("discovery.peers", peerCount);
     }
 
+    /** Pairs vus depuis moins de 10 s (liste non modifiable, partagée entre appels). */
     public Collection<PeerInfo> getPeers() {
-        // Nettoyage pairs non vus depuis 10s
-        long now = System.currentTimeMillis();
-        peers.values().removeIf(p -> now - p.lastSeen > 10000);
-        return new ArrayList<>(peers.values());
+        synchronized (peers) {
+            expire(System.currentTimeMillis());
+            return snapshot;
+        }
+    }
+
+    /** Pair "ip:port" s'il est toujours vivant, sinon null. */
+    public PeerInfo getPeer(String key) {
+        synchronized (peers) {
+            expire(System.currentTimeMillis());
+            return peers.get(key);
+        }
+    }
+
+    private void expire(long now) {
+        boolean changed = false;
+        for (Iterator<PeerInfo> it = peers.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().lastSeen <= PEER_TIMEOUT_MS) break;
+            it.remove();
+            changed = true;
+        }
+        if (changed) snapshot = Collections.unmodifiableList(new ArrayList<>(peers.values()));
+    }
+
+    private void onBeacon(InetAddress address, int port, long epoch, long generation, String summaryField) {
+        String key = address.getHostAddress() + ":" + port;
+        synchronized (peers) {
+            PeerInfo p = peers.remove(key);
+            boolean added = p == null;
+            if (added) p = new PeerInfo(address, port, 0);
+            p.lastSeen = System.currentTimeMillis();
+            p.setIndexVersion(epoch, generation);
+            p.setSummaryFetchable("-".equals(summaryField));
+            if (summaryField != null && !"-".equals(summaryField) && p.getSummary() == null) {
+                try { // décodé une fois par version du catalogue
+                    p.setSummary(ContentSummary.decode(Base64.getDecoder().decode(summaryField)), epoch, generation);
+                } catch (IOException | IllegalArgumentException e) {
+                    log.fine("Résumé invalide dans la balise de " + key + ": " + e.getMessage());
+                }
+            }
+            peers.put(key, p);
+            if (added) snapshot = Collections.unmodifiableList(new ArrayList<>(peers.values()));
+        }
     }
 
     private void start() {
@@ -46,18 +119,25 @@ public class PeerDiscovery implements AutoCloseable {
     }
 
     private void recvLoop() {
-        byte[] buf = new byte[256];
+        byte[] buf = new byte[2048];
         while (running) {
             try {
                 DatagramPacket packet = new DatagramPacket(buf, buf.length);
                 socket.receive(packet);
                 String msg = new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.UTF_8);
+                BEACONS_RECEIVED.mark(1);
                 if (msg.startsWith("HELLO ")) {
-                    String[] parts = msg.split(" ");
+                    String[] parts = msg.trim().split(" ");
                     int port = Integer.parseInt(parts[2]);
-                    PeerInfo p = new PeerInfo(packet.getAddress(), port, System.currentTimeMillis());
-                    peers.put(p.toString(), p);
+                    long epoch = 0, generation = -1;
+                    if (parts.length >= 5) {
+                        epoch = Long.parseLong(parts[3]);
+                        generation = Long.parseLong(parts[4]);
+                    }
+                    onBeacon(packet.getAddress(), port, epoch, generation, parts.length >= 6 ? parts[5] : null);
                 }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                log.fine("Balise invalide ignorée: " + e);
             } catch (IOException e) {
                 if (running) log.warning("Discovery recv error: " + e.getMessage());
             }
@@ -68,9 +148,19 @@ public class PeerDiscovery implements AutoCloseable {
         while (running) {
             try {
                 String msg = "HELLO " + InetAddress.getLocalHost().getHostAddress() + " " + tcpPort;
+                if (index != null) {
+                    long generation = index.getGeneration(); // avant le résumé : au pire, un résumé plus récent
+                    msg += " " + index.getEpoch() + " " + generation;
+                    if (SEND_SUMMARY) {
+                        ContentSummary summary = index.summary();
+                        msg += " " + (summary.encodedSize() <= MAX_BEACON_SUMMARY_BYTES
+                                ? Base64.getEncoder().encodeToString(summary.encode()) : "-");
+                    }
+                }
                 byte[] data = msg.getBytes(StandardCharsets.UTF_8);
                 DatagramPacket packet = new DatagramPacket(data, data.length, group, PORT);
                 socket.send(packet);
+                BEACONS_SENT.mark(1);
                 Thread.sleep(3000);
             } catch (Exception e) {
                 if (running) log.warning("Discovery send error: " + e.getMessage());
@@ -80,6 +170,7 @@ public class PeerDiscovery implements AutoCloseable {
 
     @Override public void close() throws IOException {
         running = false;
+        Metrics.global().removeGauge("discovery.peers", peerCount);
         if (recvThread != null) recvThread.interrupt();
         if (sendThread != null) sendThread.interrupt();
         socket.leaveGroup(group);
@@ -1,4 +1,3 @@
-
 package sn.uasz.group2.p2p;
 
 import java.net.InetAddress;
@@ -7,13 +6,58 @@ import java.util.Objects;
 public class PeerInfo {
     public final InetAddress address;
     public final int port;
-    public long lastSeen;
+    public volatile long lastSeen;
+    /**
+     * Version du catalogue annoncée dans la balise (époque et génération de
+     * son {@link SharedIndex}) ; génération -1 : pair qui n'en annonce pas.
+     */
+    private long indexEpoch;
+    private long indexGeneration = -1;
+    /** Résumé du contenu et version du catalogue qu'il décrit ; fetchable : à demander par SUMMARY. */
+    private ContentSummary summary;
+    private long summaryEpoch;
+    private long summaryGeneration = -1;
+    private boolean summaryFetchable;
 
     public PeerInfo(InetAddress address, int port, long lastSeen) {
         this.address = address;
         this.port = port;
         this.lastSeen = lastSeen;
     }
+
+    public synchronized long getIndexEpoch() { return indexEpoch; }
+    public synchronized long getIndexGeneration() { return indexGeneration; }
+    public synchronized boolean hasIndexVersion() { return indexGeneration >= 0; }
+
+    /** Vrai si la balise annonce exactement cette version (époque et génération lues ensemble). */
+    public synchronized boolean isIndexVersion(long epoch, long generation) {
+        return indexGeneration >= 0 && indexEpoch == epoch && indexGeneration == generation;
+    }
+
+    synchronized void setIndexVersion(long epoch, long generation) {
+        this.indexEpoch = epoch;
+        this.indexGeneration = generation;
+    }
+
+    /** Résumé valable pour la version annoncée, ou null (pas de résumé, ou périmé). */
+    public synchronized ContentSummary getSummary() {
+        return summary != null && indexGeneration >= 0 && summaryEpoch == indexEpoch
+                && summaryGeneration == indexGeneration ? summary : null;
+    }
+
+    /** Vrai si le pair annonce un résumé trop gros pour sa balise, à demander par SUMMARY. */
+    public synchronized boolean isSummaryFetchable() { return summaryFetchable; }
+
+    public synchronized void setSummary(ContentSummary summary, long epoch, long generation) {
+        this.summary = summary;
+        this.summaryEpoch = epoch;
+        this.summaryGeneration = generation;
+    }
+
+    synchronized void setSummaryFetchable(boolean fetchable) {
+        this.summaryFetchable = fetchable;
+    }
+
     @Override public boolean equals(Object o) {
         if (!(o instanceof PeerInfo)) return false;
         PeerInfo p = (PeerInfo)o;
@@ -2,84 +2,544 @@
 package sn.uasz.group2.p2p;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
-/** Serveur TCP d'un pair : gère LIST et GET. */
+/**
+ * Serveur TCP d'un pair : gère LIST, SEARCH (recherche par nom, extension,
+ * taille), GET, GETRANGE (reprise de téléchargement), GETHASH (GET ou
+ * GETRANGE par SHA-256, quel que soit le nom local) et CHUNKS (SHA-256 par
+ * bloc pour vérifier chaque bloc à la réception). Les transferts peuvent
+ * être compressés à la demande du client (préfixe "ENC", voir {@link Compression}).
+ *
+ * Deux moteurs au choix (-Dp2p.server.engine ou --engine) :
+ * THREADS = pool borné de threads plateforme, VIRTUAL = un thread virtuel
+ * par connexion (JDK 21+). Dans les deux cas le nombre de requêtes en
+ * cours est plafonné (-Dp2p.server.maxConnections, 256 par défaut) ;
+ * au-delà le client reçoit "ERR Busy".
+ *
+ * Une connexion sert une seule commande, sauf si elle commence par "MUX" :
+ * elle reste alors ouverte et enchaîne des requêtes en trames (voir
+ * {@link Wire}), fermée après -Dp2p.server.idleTimeout ms d'inactivité.
+ * Une connexion persistante en attente de sa prochaine requête ne compte
+ * pas dans ce plafond ; le nombre total de connexions ouvertes l'est à part
+ * (-Dp2p.server.maxOpenConnections, 4 x maxConnections par défaut). Une
+ * connexion qui n'a pas envoyé sa première ligne après
+ * -Dp2p.server.firstLineTimeout ms (10 s par défaut) est fermée : des
+ * sockets muettes ne peuvent pas bloquer le serveur.
+ *
+ * SUMMARY renvoie le {@link ContentSummary} du partage, pour les pairs dont
+ * le résumé est trop gros pour la balise de découverte.
+ *
+ * STATS renvoie les {@link Metrics} du nœud (latence par commande,
+ * connexions, octets envoyés...) ; -Dp2p.server.stats=local (défaut :
+ * clients locaux seulement), all ou off.
+ */
 public class PeerServer implements AutoCloseable {
     private static final Logger log = Logger.getLogger(PeerServer.class.getName());
+
+    public enum Engine { THREADS, VIRTUAL }
+
+    // Métriques communes à tous les serveurs de la JVM
+    private static final Metrics.Counter ACTIVE = Metrics.global().counter("server.connections.active");
+    private static final Metrics.Counter ACCEPTED = Metrics.global().counter("server.connections.accepted");
+    private static final Metrics.Counter REJECTED = Metrics.global().counter("server.connections.rejected");
+    private static final Metrics.Counter ERRORS = Metrics.global().counter("server.errors");
+    /** Latence par commande (µs, jusqu'au dernier octet envoyé) ; son .count compte les requêtes. */
+    private static final Map<String, Metrics.Histogram> LATENCY = new HashMap<>();
+    static {
+        for (String cmd : new String[] { "LIST", "LIST_SINCE", "SEARCH", "GET", "GETRANGE", "GETHASH", "CHUNKS",
+                                         "STATS", "SUMMARY", "OTHER" }) {
+            LATENCY.put(cmd, Metrics.global().histogram("server.request." + cmd + ".latency_us"));
+        }
+    }
+
     private final int port;
     private final SharedIndex index;
-    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final Engine engine;
+    private final int maxConnections;
+    /** Requêtes en cours ; pris une fois la commande reçue, jamais pendant l'attente. */
+    private final Semaphore permits;
+    /** Connexions ouvertes, persistantes inactives comprises. */
+    private final Semaphore connections;
+    private final int idleTimeoutMs = Integer.getInteger("p2p.server.idleTimeout", 60_000);
+    private final int firstLineTimeoutMs = Integer.getInteger("p2p.server.firstLineTimeout", 10_000);
+    private final ExecutorService pool;
+    private final UploadScheduler uploads = new UploadScheduler();
+    private final String statsAccess = System.getProperty("p2p.server.stats", "local").toLowerCase();
+    private final java.util.function.LongSupplier activeUploads = uploads::activeUploads;
+    private Thread acceptThread;
     private volatile boolean running = true;
-    private ServerSocket server;
+    private ServerSocketChannel server;
 
     public PeerServer(int port, SharedIndex index) {
+        this(port, index,
+             engineOf(System.getProperty("p2p.server.engine", "threads")),
+             Integer.getInteger("p2p.server.maxConnections", 256));
+    }
+
+    /** Moteur nommé (threads, virtual) ; THREADS avec un avertissement si le nom est inconnu. */
+    public static Engine engineOf(String name) {
+        try {
+            return Engine.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warning("Moteur de serveur inconnu '" + name + "' : moteur THREADS utilisé.");
+            return Engine.THREADS;
+        }
+    }
+
+    public PeerServer(int port, SharedIndex index, Engine engine, int maxConnections) {
         this.port = port;
         this.index = index;
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections);
+        int maxOpen = Math.max(maxConnections, Integer.getInteger("p2p.server.maxOpenConnections", 4 * maxConnections));
+        this.connections = new Semaphore(maxOpen);
+        ExecutorService virtual = engine == Engine.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.engine = Engine.VIRTUAL;
+            this.pool = virtual;
+        } else {
+            if (engine == Engine.VIRTUAL) log.warning("Threads virtuels indisponibles (JDK < 21) : moteur THREADS utilisé.");
+            this.engine = Engine.THREADS;
+            AtomicInteger seq = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(0, maxOpen, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), r -> new Thread(r, "peer-conn-" + seq.incrementAndGet()));
+        }
     }
 
+    public Engine getEngine() { return engine; }
+
+    /** Limites de débit montant, modifiables à chaud. */
+    public UploadScheduler getUploadScheduler() { return uploads; }
+
     public void start() throws IOException {
-        server = new ServerSocket(port);
-        pool.submit(() -> {
-            log.info("Serveur TCP démarré sur le port " + port);
-            while (running) {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        acceptThread = new Thread(this::acceptLoop, "peer-accept-" + port);
+        acceptThread.start();
+        Metrics.global().gauge("server.uploads.active", activeUploads);
+        Metrics.registerMBean();
+    }
+
+    private void acceptLoop() {
+        log.info("Serveur TCP démarré sur le port " + port + " (" + engine + ", max " + maxConnections + " requêtes)");
+        while (running) {
+            try {
+                SocketChannel ch = server.accept();
+                if (!connections.tryAcquire()) {
+                    REJECTED.inc();
+                    reject(ch);
+                    continue;
+                }
                 try {
-                    Socket s = server.accept();
-                    pool.submit(() -> handle(s));
-                } catch (IOException e) {
-                    if (running) log.warning("Accept error: " + e.getMessage());
+                    pool.execute(() -> {
+                        ACTIVE.inc();
+                        try {
+                            handle(ch);
+                        } finally {
+                            ACTIVE.add(-1);
+                            connections.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Thread qui vient de rendre sa connexion sans être encore revenu au pool, ou arrêt en cours
+                    connections.release();
+                    REJECTED.inc();
+                    reject(ch);
+                    continue;
                 }
+                ACCEPTED.inc();
+            } catch (IOException e) {
+                if (running) log.warning("Accept error: " + e.getMessage());
             }
-        });
+        }
+    }
+
+    private static void reject(SocketChannel ch) {
+        try (ch) {
+            ResponseStream.writeFully(ch, ByteBuffer.wrap("ERR Busy\n".getBytes()));
+        } catch (IOException ignore) {}
     }
 
-    private void handle(Socket s) {
-        try (s;
-             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
-             OutputStream rawOut = s.getOutputStream()) {
+    /** Executors.newVirtualThreadPerTaskExecutor() par réflexion : le code reste compilable en Java 11. */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
 
-            String line = in.readLine();
+    /**
+     * Sert une connexion acceptée. La première ligne est attendue au plus
+     * firstLineTimeoutMs, sans permis de requête : celui-ci n'est pris
+     * qu'une fois la commande reçue (requête par requête en MUX).
+     */
+    private void handle(SocketChannel ch) {
+        try (ch;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(ch.socket().getInputStream()))) {
+
+            ch.socket().setSoTimeout(firstLineTimeoutMs);
+            String line = Wire.readLine(in);
             if (line == null) return;
-            if (line.equals("LIST")) {
-                List<FileMetadata> list = index.list();
-                ObjectOutputStream oos = new ObjectOutputStream(rawOut);
-                oos.writeObject(list);
-                oos.flush();
-            } else if (line.startsWith("GET ")) {
-                String name = line.substring(4).trim();
-                File f = index.resolve(name);
-                if (!f.exists() || !f.isFile()) {
-                    rawOut.write("ERR NotFound\n".getBytes());
-                    rawOut.flush();
-                    return;
-                }
-                // OK header
-                rawOut.write("OK\n".getBytes());
-                rawOut.flush();
-                DataOutputStream out = new DataOutputStream(rawOut);
-                out.writeLong(f.length());
-                try (InputStream fileIn = new BufferedInputStream(new FileInputStream(f))) {
-                    fileIn.transferTo(out);
+            if (line.equals(Wire.MUX)) {
+                serveMux(ch, in);
+                return;
+            }
+            if (!permits.tryAcquire()) {
+                REJECTED.inc();
+                ResponseStream.writeFully(ch, ByteBuffer.wrap("ERR Busy\n".getBytes()));
+                return;
+            }
+            try {
+                ch.socket().setSoTimeout(0); // plus rien à lire : la réponse peut durer
+                ResponseStream resp = new ResponseStream.Direct(ch);
+                try (UploadScheduler.Upload up = uploads.open(ch.socket().getInetAddress())) {
+                    resp.setUpload(up);
+                    serve(line, resp);
                 }
-                out.write(CryptoUtils.sha256Bytes(f)); // 32 bytes
-                out.flush();
-            } else {
-                rawOut.write("ERR BadCommand\n".getBytes());
-                rawOut.flush();
+            } finally {
+                permits.release();
             }
+        } catch (SocketTimeoutException e) {
+            log.fine("Connexion inactive fermée");
         } catch (IOException e) {
-            log.warning("Client handler error: " + e.getMessage());
+            ERRORS.inc();
+            if (running) log.warning("Client handler error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Connexion persistante : requêtes en trames (id, commande) traitées dans
+     * l'ordre, réponses en trames portant le même id (voir {@link Wire}).
+     * La connexion est fermée par le client ou après idleTimeoutMs d'inactivité.
+     * Chaque requête prend un permis le temps de sa réponse : au-delà du
+     * plafond, elle reçoit "ERR Busy" et la connexion reste ouverte.
+     */
+    private void serveMux(SocketChannel ch, DataInputStream in) throws IOException {
+        ch.socket().setSoTimeout(idleTimeoutMs);
+        ch.socket().setTcpNoDelay(true); // petites réponses enchaînées : pas d'attente de Nagle
+        ResponseStream.writeFully(ch, ByteBuffer.wrap((Wire.MUX_OK + "\n").getBytes()));
+        ResponseStream.Framed resp = new ResponseStream.Framed(ch);
+        while (running) {
+            int id;
+            try {
+                id = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            String line = in.readUTF();
+            if (!permits.tryAcquire()) {
+                REJECTED.inc();
+                resp.begin(id);
+                resp.setUpload(null);
+                resp.write("ERR Busy\n".getBytes());
+                resp.end();
+                continue;
+            }
+            try (UploadScheduler.Upload up = uploads.open(ch.socket().getInetAddress())) {
+                resp.begin(id);
+                resp.setUpload(up);
+                serve(line, resp);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /** Une requête, jusqu'à la fin de sa réponse, mesurée dans les métriques. */
+    private void serve(String line, ResponseStream resp) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            dispatch(line, resp);
+            resp.end();
+        } finally {
+            LATENCY.get(commandOf(line)).recordMicrosSince(t0);
+        }
+    }
+
+    /** Nom de la commande pour les métriques (préfixe ENC ignoré). */
+    private static String commandOf(String line) {
+        if (line.startsWith("ENC ")) {
+            int sp = line.indexOf(' ', 4);
+            line = sp < 0 ? "" : line.substring(sp + 1);
+        }
+        if (line.startsWith("LIST SINCE ")) return "LIST_SINCE";
+        int sp = line.indexOf(' ');
+        String cmd = sp < 0 ? line : line.substring(0, sp);
+        return LATENCY.containsKey(cmd) ? cmd : "OTHER";
+    }
+
+    private void dispatch(String line, ResponseStream resp) throws IOException {
+        // ENC <codec> <commande> : compression proposée par le client, appliquée si utile
+        Compression.Codec codec = null;
+        if (line.startsWith("ENC ")) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length < 3) {
+                resp.write("ERR BadRequest\n".getBytes());
+                return;
+            }
+            codec = Compression.get(parts[1]);
+            line = parts[2];
+        }
+
+        if (line.startsWith("LIST SINCE ")) {
+            // LIST SINCE <génération> <époque> : changements seulement, sinon catalogue complet
+            String[] parts = line.split(" ");
+            List<SharedIndex.Change> changes = null;
+            long since = 0;
+            try {
+                since = Long.parseLong(parts[2]);
+                changes = index.changesSince(Long.parseLong(parts[3]), since);
+            } catch (RuntimeException e) {
+                // requête mal formée : on répond par le catalogue complet
+            }
+            if (changes == null) {
+                sendCatalog(resp, null, Integer.MAX_VALUE);
+            } else {
+                sendDelta(resp, changes, since);
+            }
+        } else if (line.equals("LIST") || line.startsWith("LIST ")) {
+            // LIST [<limite> [<après-nom>]] : pagination par curseur sur le nom
+            String[] parts = line.split(" ", 3);
+            int limit = Integer.MAX_VALUE;
+            try {
+                if (parts.length > 1) limit = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (limit < 0) {
+                resp.write("ERR BadRequest\n".getBytes());
+                return;
+            }
+            sendCatalog(resp, parts.length > 2 ? parts[2] : null, limit);
+        } else if (line.startsWith("SEARCH ")) {
+            // SEARCH <limite> <requête> (voir SearchIndex.Query) : réponse au format CatalogCodec
+            String[] parts = line.split(" ", 3);
+            List<FileMetadata> hits;
+            try {
+                int limit = Integer.parseInt(parts[1]);
+                if (limit < 0 || parts.length < 3) throw new IllegalArgumentException();
+                hits = index.search(SearchIndex.Query.parse(parts[2]), limit);
+            } catch (RuntimeException e) {
+                resp.write("ERR BadRequest\n".getBytes());
+                return;
+            }
+            CatalogCodec.Writer w = new CatalogCodec.Writer(resp, false, index.getEpoch(), index.getGeneration(), hits.size());
+            for (FileMetadata fm : hits) w.write(fm);
+            w.finish();
+        } else if (line.startsWith("GETHASH ")) {
+            // GETHASH <sha256> [<offset> <longueur>] : réponse de GET, ou de GETRANGE avec une plage
+            String[] parts = line.split(" ");
+            FileMetadata meta;
+            long offset = -1, length = -1;
+            try {
+                if (parts.length != 2 && parts.length != 4) throw new IllegalArgumentException();
+                if (parts.length == 4) {
+                    offset = Long.parseLong(parts[2]);
+                    length = Long.parseLong(parts[3]);
+                    if (offset < 0 || length < 0) throw new IllegalArgumentException();
+                }
+                meta = index.lookupBySha256(parts[1]);
+            } catch (RuntimeException e) {
+                resp.write("ERR BadRequest\n".getBytes());
+                return;
+            }
+            if (meta == null) {
+                resp.write("ERR NotFound\n".getBytes());
+                return;
+            }
+            if (parts.length == 4) sendRange(resp, meta, offset, length, codec);
+            else sendFile(resp, meta, codec);
+        } else if (line.startsWith("GET ")) {
+            String name = line.substring(4).trim();
+            FileMetadata meta = index.lookup(name);
+            if (meta == null) {
+                resp.write("ERR NotFound\n".getBytes());
+                return;
+            }
+            sendFile(resp, meta, codec);
+        } else if (line.startsWith("GETRANGE ")) {
+            // GETRANGE <offset> <longueur> <nom>
+            String[] parts = line.split(" ", 4);
+            long offset, length;
+            try {
+                offset = Long.parseLong(parts[1]);
+                length = Long.parseLong(parts[2]);
+            } catch (RuntimeException e) {
+                offset = length = -1;
+            }
+            if (parts.length < 4 || offset < 0 || length < 0) {
+                resp.write("ERR BadRequest\n".getBytes());
+                return;
+            }
+            FileMetadata meta = index.lookup(parts[3]);
+            if (meta == null) {
+                resp.write("ERR NotFound\n".getBytes());
+                return;
+            }
+            sendRange(resp, meta, offset, length, codec);
+        } else if (line.startsWith("CHUNKS ")) {
+            // Réponse : "OK\n" puis l'arbre de Merkle (voir MerkleTree.writeTo)
+            MerkleTree tree = index.merkleTree(line.substring(7).trim());
+            if (tree == null) {
+                resp.write("ERR NotFound\n".getBytes());
+                return;
+            }
+            DataOutputStream out = new DataOutputStream(resp);
+            out.write("OK\n".getBytes());
+            tree.writeTo(out);
+        } else if (line.equals("SUMMARY")) {
+            // Réponse : "OK\n", longueur (int) puis le résumé encodé
+            byte[] summary = index.summary().encode();
+            DataOutputStream out = new DataOutputStream(resp);
+            out.write("OK\n".getBytes());
+            out.writeInt(summary.length);
+            out.write(summary);
+        } else if (line.equals("STATS")) {
+            // Réponse : "OK\n" puis une ligne "nom valeur" par métrique (voir Metrics.format)
+            if (!statsAllowed(resp)) {
+                resp.write("ERR Forbidden\n".getBytes());
+                return;
+            }
+            resp.write("OK\n".getBytes());
+            resp.write(Metrics.global().format().getBytes(StandardCharsets.UTF_8));
+        } else {
+            resp.write("ERR BadCommand\n".getBytes());
+        }
+    }
+
+    private boolean statsAllowed(ResponseStream resp) {
+        switch (statsAccess) {
+            case "all": return true;
+            case "off": return false;
+            default:    return resp.ch.socket().getInetAddress().isLoopbackAddress();
+        }
+    }
+
+    /**
+     * Catalogue au format CatalogCodec, écrit entrée par entrée depuis
+     * l'index trié : tout le catalogue, ou une page de {@code limit} entrées
+     * après {@code afterName}. Le total de l'en-tête est toujours celui du
+     * catalogue entier, pas celui de la page : le client sait ainsi combien
+     * d'entrées il lui reste à demander. La génération et le total sont lus
+     * avant le parcours : un changement concurrent sera de toute façon
+     * renvoyé par le LIST SINCE suivant.
+     */
+    private void sendCatalog(OutputStream out, String afterName, int limit) throws IOException {
+        long gen = index.getGeneration();
+        CatalogCodec.Writer w = new CatalogCodec.Writer(out, false, index.getEpoch(), gen, index.size());
+        int n = 0;
+        for (FileMetadata fm : index.entriesAfter(afterName)) {
+            if (n++ >= limit) break;
+            w.write(fm);
+        }
+        w.finish();
+    }
+
+    /** Réponse LIST SINCE quand le journal de l'index couvre la génération demandée. */
+    private void sendDelta(OutputStream out, List<SharedIndex.Change> changes, long since) throws IOException {
+        long gen = since;
+        for (SharedIndex.Change c : changes) gen = Math.max(gen, c.generation);
+        CatalogCodec.Writer w = new CatalogCodec.Writer(out, true, index.getEpoch(), gen, index.size());
+        for (SharedIndex.Change c : changes) {
+            if (c.meta == null) w.writeRemoval(c.name);
+            else w.write(c.meta);
+        }
+        w.finish();
+    }
+
+    /**
+     * Réponse GET : "OK\n", taille (long), contenu, SHA-256 (32 octets).
+     * Le contenu part en zéro-copie (FileChannel.transferTo → sendfile) et le
+     * SHA-256 est celui de l'index : le fichier n'est lu qu'une seule fois.
+     * Avec un codec utile pour ce fichier : "OK codec\n" et contenu en blocs.
+     */
+    private void sendFile(ResponseStream resp, FileMetadata meta, Compression.Codec codec) throws IOException {
+        File f = index.resolve(meta.getName());
+        try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long length = meta.getSize();
+            codec = chooseCodec(codec, meta, fc, 0, length);
+            DataOutputStream out = new DataOutputStream(resp);
+            out.write(okHeader(codec));
+            out.writeLong(length);
+            sendContent(resp, fc, 0, length, meta, codec);
+            byte[] sha = new byte[32];
+            meta.copySha256To(sha, 0);
+            out.write(sha);
+        }
+    }
+
+    /**
+     * Réponse GETRANGE : "OK\n", taille totale (long), SHA-256 du fichier entier
+     * (32 octets), nombre d'octets envoyés (long), puis les octets
+     * [offset, offset + n). La longueur demandée est bornée à la fin du fichier.
+     */
+    private void sendRange(ResponseStream resp, FileMetadata meta, long offset, long length,
+                           Compression.Codec codec) throws IOException {
+        File f = index.resolve(meta.getName());
+        try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = meta.getSize();
+            long start = Math.min(offset, size);
+            long count = Math.min(length, size - start);
+            codec = chooseCodec(codec, meta, fc, start, count);
+            DataOutputStream out = new DataOutputStream(resp);
+            out.write(okHeader(codec));
+            out.writeLong(size);
+            byte[] sha = new byte[32];
+            meta.copySha256To(sha, 0);
+            out.write(sha);
+            out.writeLong(count);
+            sendContent(resp, fc, start, count, meta, codec);
+        }
+    }
+
+    /** Le codec demandé, sauf pour un format déjà compressé ou une sonde du premier bloc décevante. */
+    private static Compression.Codec chooseCodec(Compression.Codec requested, FileMetadata meta, FileChannel fc,
+                                                 long pos, long count) throws IOException {
+        if (requested == null || count == 0 || Compression.isCompressedFormat(meta.getName())) return null;
+        return Compression.worthCompressing(requested, fc, pos, count) ? requested : null;
+    }
+
+    private static byte[] okHeader(Compression.Codec codec) {
+        return (codec == null ? "OK\n" : "OK " + codec.name() + "\n").getBytes();
+    }
+
+    private void sendContent(ResponseStream resp, FileChannel fc, long pos, long count, FileMetadata meta,
+                             Compression.Codec codec) throws IOException {
+        if (codec == null) {
+            resp.transfer(fc, pos, count, meta.getName());
+            return;
         }
+        long wire = Compression.writeBlocks(codec, fc, pos, count, resp);
+        log.fine(String.format("%s compressé (%s): %d -> %d octets (%.1f %%)", meta.getName(), codec.name(),
+                count, wire, 100.0 * wire / count));
     }
 
     @Override public void close() throws IOException {
         running = false;
+        Metrics.global().removeGauge("server.uploads.active", activeUploads);
         if (server != null) server.close();
+        if (acceptThread != null) acceptThread.interrupt();
         pool.shutdownNow();
     }
 }
@@ -0,0 +1,57 @@
+package sn.uasz.group2.p2p;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Copie locale du catalogue d'un pair, tenue à jour par LIST SINCE :
+ * seuls les ajouts/MAJ/retraits depuis la dernière génération vue transitent,
+ * et rien du tout tant que la balise du pair annonce la même version.
+ */
+public class RemoteCatalog {
+    private final NavigableMap<String, FileMetadata> entries = new TreeMap<>();
+    private long epoch;
+    private long generation = -1;
+
+    /** Vrai tant qu'aucun catalogue complet n'a été reçu. */
+    public synchronized boolean isEmpty() { return generation < 0; }
+
+    public synchronized long getEpoch() { return epoch; }
+
+    public synchronized long getGeneration() { return generation; }
+
+    /**
+     * Vrai si la dernière balise du pair annonce la version déjà reçue :
+     * aucun LIST SINCE n'est alors nécessaire.
+     */
+    public synchronized boolean isCurrent(PeerInfo peer) {
+        return generation >= 0 && peer.isIndexVersion(epoch, generation);
+    }
+
+    public synchronized int size() { return entries.size(); }
+
+    /** Copie des entrées, triées par nom. */
+    public synchronized List<FileMetadata> list() {
+        return new ArrayList<>(entries.values());
+    }
+
+    synchronized void reset() {
+        entries.clear();
+    }
+
+    synchronized void apply(String name, FileMetadata meta) {
+        if (meta == null) entries.remove(name);
+        else entries.put(name, meta);
+    }
+
+    synchronized void invalidate() {
+        generation = -1;
+    }
+
+    synchronized void setVersion(long epoch, long generation) {
+        this.epoch = epoch;
+        this.generation = generation;
+    }
+}
@@ -0,0 +1,168 @@
+package sn.uasz.group2.p2p;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Flux de réponse d'une commande côté serveur : octets ordinaires (tamponnés)
+ * plus envoi zéro-copie d'une plage de fichier. Les commandes écrivent les
+ * mêmes octets qu'elles soient servies en direct (une commande par
+ * connexion) ou en trames MUX (voir {@link Wire}). Tout part par tranches
+ * soumises à l'{@link UploadScheduler} de la réponse en cours.
+ */
+abstract class ResponseStream extends OutputStream {
+    private static final Metrics.Meter BYTES_SENT = Metrics.global().meter("server.bytes.sent");
+
+    protected final SocketChannel ch;
+    protected final byte[] buf = new byte[1 << 16];
+    protected int pos;
+    /** Envoi en cours (limitation de débit), ou null : pas de limite. */
+    protected UploadScheduler.Upload upload;
+
+    ResponseStream(SocketChannel ch) {
+        this.ch = ch;
+    }
+
+    void setUpload(UploadScheduler.Upload upload) {
+        this.upload = upload;
+    }
+
+    @Override public void write(int b) throws IOException {
+        if (pos == buf.length) flush();
+        buf[pos++] = (byte) b;
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (pos == buf.length) flush();
+            int n = Math.min(len, buf.length - pos);
+            System.arraycopy(b, off, buf, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Envoie [pos, pos + count) du fichier après les octets déjà écrits. */
+    abstract void transfer(FileChannel fc, long pos, long count, String name) throws IOException;
+
+    /** Termine la réponse (tout est envoyé). */
+    void end() throws IOException {
+        flush();
+    }
+
+    static void writeFully(SocketChannel ch, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) ch.write(b);
+    }
+
+    /** Attend la permission d'envoyer n octets (au plus une tranche) et les compte. */
+    protected void throttle(int n) throws IOException {
+        if (upload != null) upload.acquire(n);
+        BYTES_SENT.mark(n);
+    }
+
+    /** Tampon envoyé par tranches, chacune après throttle(). */
+    protected void writeThrottled(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            int n = Math.min(b.remaining(), UploadScheduler.SLICE);
+            throttle(n);
+            int limit = b.limit();
+            b.limit(b.position() + n);
+            writeFully(ch, b);
+            b.limit(limit);
+        }
+    }
+
+    /** Envoi zéro-copie de [pos, pos + count) par tranches, chacune après throttle(). */
+    protected void transferFully(FileChannel fc, long pos, long count, String name) throws IOException {
+        long end = pos + count;
+        while (pos < end) {
+            int slice = (int) Math.min(UploadScheduler.SLICE, end - pos);
+            throttle(slice);
+            long sliceEnd = pos + slice;
+            while (pos < sliceEnd) {
+                long n = fc.transferTo(pos, sliceEnd - pos, ch);
+                if (n <= 0 && pos >= fc.size()) throw new EOFException("Fichier tronqué pendant l'envoi: " + name);
+                pos += n;
+            }
+        }
+    }
+
+    /** Une commande par connexion : les octets partent tels quels. */
+    static final class Direct extends ResponseStream {
+        Direct(SocketChannel ch) {
+            super(ch);
+        }
+
+        @Override public void flush() throws IOException {
+            if (pos == 0) return;
+            writeThrottled(ByteBuffer.wrap(buf, 0, pos));
+            pos = 0;
+        }
+
+        @Override void transfer(FileChannel fc, long from, long count, String name) throws IOException {
+            flush();
+            transferFully(fc, from, count, name);
+        }
+    }
+
+    /** Mode MUX : chaque bloc est précédé de (id de requête, longueur) ; longueur 0 = fin. */
+    static final class Framed extends ResponseStream {
+        private static final int MAX_FILE_FRAME = 1 << 20;
+        private final ByteBuffer header = ByteBuffer.allocate(8);
+        private final ByteBuffer trailer = ByteBuffer.allocate(8);
+        private int requestId;
+
+        Framed(SocketChannel ch) {
+            super(ch);
+        }
+
+        void begin(int requestId) {
+            this.requestId = requestId;
+            this.pos = 0;
+        }
+
+        @Override public void flush() throws IOException {
+            if (pos == 0) return;
+            send(false);
+        }
+
+        @Override void transfer(FileChannel fc, long from, long count, String name) throws IOException {
+            flush();
+            long end = from + count;
+            while (from < end) {
+                int n = (int) Math.min(MAX_FILE_FRAME, end - from);
+                frameHeader(header, n);
+                writeFully(ch, header);
+                transferFully(fc, from, n, name);
+                from += n;
+            }
+        }
+
+        /** Dernier bloc et trame de fin partent dans la même écriture. */
+        @Override void end() throws IOException {
+            send(true);
+        }
+
+        private void send(boolean last) throws IOException {
+            if (pos > 0) throttle(pos); // le tampon fait une tranche (64 Kio)
+            ByteBuffer data = ByteBuffer.wrap(buf, 0, pos);
+            frameHeader(header, pos);
+            frameHeader(trailer, 0);
+            ByteBuffer[] parts = pos == 0 ? new ByteBuffer[] { trailer }
+                    : last ? new ByteBuffer[] { header, data, trailer }
+                    : new ByteBuffer[] { header, data };
+            while (parts[parts.length - 1].hasRemaining()) ch.write(parts);
+            pos = 0;
+        }
+
+        private void frameHeader(ByteBuffer b, int length) {
+            b.clear();
+            b.putInt(requestId).putInt(length).flip();
+        }
+    }
+}
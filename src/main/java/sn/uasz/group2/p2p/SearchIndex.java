@@ -0,0 +1,416 @@
+package sn.uasz.group2.p2p;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Index inversé des noms de fichiers pour SEARCH : chaque entrée reçoit un
+ * numéro, et chaque trigramme du nom de base (dernier segment du chemin, en
+ * minuscules), chaque extension et chaque classe de taille (puissance de 2)
+ * pointent vers la liste triée des numéros concernés. Une requête intersecte
+ * les listes les plus courtes puis vérifie les candidats sur l'entrée réelle.
+ *
+ * Un retrait ne touche pas aux listes (il viderait de grands tableaux) :
+ * le numéro est marqué mort, ignoré par les recherches, et les listes sont
+ * compactées d'un seul passage quand les morts dépassent la moitié des vivants.
+ *
+ * Non synchronisé : SharedIndex l'appelle sous son verrou (écriture pour
+ * add/remove, lecture pour search).
+ */
+public final class SearchIndex {
+    private FileMetadata[] docs = new FileMetadata[1024];
+    private int docCount;
+    /** Entrées retirées dont le numéro traîne encore dans les listes (voir compact()). */
+    private int deadCount;
+    private final Map<String, Integer> idByName = new HashMap<>();
+    private final TrigramTable trigrams = new TrigramTable();
+    private final Map<String, Postings> extensions = new HashMap<>();
+    private final Postings[] sizeClasses = new Postings[65];
+
+    /** Critères d'une recherche ; tous doivent être satisfaits. */
+    public static final class Query {
+        final List<String> terms = new ArrayList<>();
+        String prefix;
+        String ext;
+        String dir;
+        /** SHA-256 exact (hex majuscule), ou null. */
+        String sha;
+        long minSize = 0;
+        long maxSize = Long.MAX_VALUE;
+
+        /**
+         * Syntaxe : mots séparés par des espaces. {@code ext:pdf},
+         * {@code prefix:rapport}, {@code in:docs/2024}, {@code min:<octets>},
+         * {@code max:<octets>}, {@code sha:<sha-256 hex>} ; tout autre mot doit apparaître dans le nom de
+         * base (sans tenir compte de la casse).
+         */
+        public static Query parse(String text) {
+            Query q = new Query();
+            for (String tok : text.trim().split("\\s+")) {
+                if (tok.isEmpty()) continue;
+                String lower = tok.toLowerCase(Locale.ROOT);
+                if (lower.startsWith("ext:")) q.ext = stripDot(lower.substring(4));
+                else if (lower.startsWith("prefix:")) q.prefix = lower.substring(7);
+                else if (lower.startsWith("in:")) q.dir = trimSlashes(tok.substring(3));
+                else if (lower.startsWith("min:")) q.minSize = Long.parseLong(tok.substring(4));
+                else if (lower.startsWith("max:")) q.maxSize = Long.parseLong(tok.substring(4));
+                else if (lower.startsWith("sha:")) q.sha = checkSha(tok.substring(4));
+                else q.terms.add(lower);
+            }
+            if (q.minSize < 0 || q.maxSize < q.minSize) throw new IllegalArgumentException("Intervalle de taille invalide");
+            return q;
+        }
+
+        private static String checkSha(String hex) {
+            CryptoUtils.hexToBytes(hex); // IllegalArgumentException si invalide
+            if (hex.length() != 64) throw new IllegalArgumentException("SHA-256 invalide: " + hex);
+            return hex.toUpperCase(Locale.ROOT);
+        }
+
+        /** SHA-256 demandé par sha:, ou null. */
+        public String getSha256Hex() { return sha; }
+
+        private static String stripDot(String e) {
+            return e.startsWith(".") ? e.substring(1) : e;
+        }
+
+        private static String trimSlashes(String d) {
+            int b = 0, e = d.length();
+            while (b < e && d.charAt(b) == '/') b++;
+            while (e > b && d.charAt(e - 1) == '/') e--;
+            return d.substring(b, e);
+        }
+
+        boolean matches(FileMetadata fm) {
+            if (fm.getSize() < minSize || fm.getSize() > maxSize) return false;
+            if (sha != null && !sha.equals(fm.getSha256Hex())) return false;
+            String name = fm.getName();
+            if (dir != null && !dir.isEmpty()
+                    && !(name.startsWith(dir) && name.length() > dir.length() && name.charAt(dir.length()) == '/')) {
+                return false;
+            }
+            int base = baseStart(name);
+            if (prefix != null && !name.regionMatches(true, base, prefix, 0, prefix.length())) return false;
+            if (ext != null && !ext.equals(extensionOf(name, base))) return false;
+            for (String t : terms) {
+                if (!containsIgnoreCase(name, base, t)) return false;
+            }
+            return true;
+        }
+    }
+
+    /** Liste triée de numéros d'entrées. */
+    private static final class Postings {
+        int[] ids = new int[2];
+        int size;
+
+        /** Les numéros sont attribués en ordre croissant : ajout en fin de liste. */
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) return; // trigramme répété dans le nom
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        /** Renumérote selon remap (croissant, -1 = mort) : la liste reste triée. */
+        void remap(int[] remap) {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                int id = remap[ids[i]];
+                if (id >= 0) ids[n++] = id;
+            }
+            size = n;
+            if (n < ids.length / 4) ids = Arrays.copyOf(ids, Math.max(2, n));
+        }
+    }
+
+    /** Table à adressage ouvert trigramme → liste, sans objet Long par clé. */
+    private static final class TrigramTable {
+        private long[] keys = new long[1 << 12];
+        private Postings[] values = new Postings[1 << 12];
+        private int size;
+
+        void forEach(java.util.function.Consumer<Postings> action) {
+            for (Postings p : values) if (p != null) action.accept(p);
+        }
+
+        Postings get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            return null;
+        }
+
+        Postings getOrCreate(long key) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            Postings p = new Postings();
+            keys[i] = key;
+            values[i] = p;
+            if (++size * 2 > keys.length) grow();
+            return p;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Postings[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] == null) continue;
+                int i = slot(oldKeys[j], mask);
+                while (values[i] != null) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 40) & mask;
+        }
+    }
+
+    public int size() {
+        return idByName.size();
+    }
+
+    /** Ajout ou remplacement (même nom) d'une entrée. */
+    public void add(FileMetadata fm) {
+        Integer existing = idByName.get(fm.getName());
+        if (existing != null) {
+            // même nom, donc mêmes trigrammes et même extension
+            if (sizeClassOf(docs[existing].getSize()) == sizeClassOf(fm.getSize())) {
+                docs[existing] = fm;
+                return;
+            }
+            remove(fm.getName());
+        }
+        int id = docCount++;
+        if (id == docs.length) docs = Arrays.copyOf(docs, docs.length * 2);
+        docs[id] = fm;
+        idByName.put(fm.getName(), id);
+        forEachTrigram(fm.getName(), key -> trigrams.getOrCreate(key).add(id));
+        String ext = extensionOf(fm.getName(), baseStart(fm.getName()));
+        if (ext != null) extensions.computeIfAbsent(ext, k -> new Postings()).add(id);
+        sizeClass(fm.getSize()).add(id);
+    }
+
+    public void remove(String name) {
+        Integer id = idByName.remove(name);
+        if (id == null) return;
+        docs[id] = null;
+        if (++deadCount > Math.max(1024, idByName.size() / 2)) compact();
+    }
+
+    /** Renumérote les entrées vivantes de 0 à n-1 et purge les morts de toutes les listes. */
+    private void compact() {
+        int[] remap = new int[docCount];
+        int n = 0;
+        for (int id = 0; id < docCount; id++) {
+            if (docs[id] == null) {
+                remap[id] = -1;
+            } else {
+                docs[n] = docs[id];
+                remap[id] = n++;
+            }
+        }
+        Arrays.fill(docs, n, docCount, null);
+        docCount = n;
+        deadCount = 0;
+        trigrams.forEach(p -> p.remap(remap));
+        for (Postings p : extensions.values()) p.remap(remap);
+        for (Postings p : sizeClasses) if (p != null) p.remap(remap);
+        for (Map.Entry<String, Integer> e : idByName.entrySet()) e.setValue(remap[e.getValue()]);
+    }
+
+    /**
+     * Les {@code limit} premières entrées, par nom, parmi celles qui
+     * satisfont la requête, triées par nom. Les numéros suivent l'ordre
+     * d'indexation et non les noms : tous les candidats sont donc vérifiés,
+     * et seuls les {@code limit} plus petits noms sont gardés (tas borné).
+     * Sans mot d'au moins 3 caractères ni extension, parcourt toutes les entrées.
+     */
+    public List<FileMetadata> search(Query q, int limit) {
+        return search(q, limit, null);
+    }
+
+    /**
+     * Comme {@link #search(Query, int)}, mais quand les candidats sont si
+     * nombreux que les {@code limit} premiers noms arrivent vite, parcourt
+     * plutôt {@code byName} (les mêmes entrées triées par nom, éventuellement
+     * réduites au dossier in:) et s'arrête à la limite.
+     */
+    public List<FileMetadata> search(Query q, int limit, Iterable<FileMetadata> byName) {
+        List<Postings> lists = postings(q);
+        if (lists == null || limit <= 0) return new ArrayList<>();
+        // Parcours par nom : ~limit × entrées / résultats lectures, contre une par candidat ;
+        // il gagne dès que les résultats dépassent ce seuil (comptés en route : pas d'estimation
+        // sur les listes, dont les trigrammes communs gonflent la taille)
+        long scanAbove = byName == null ? Long.MAX_VALUE : (long) Math.sqrt((double) limit * idByName.size());
+
+        // plus grand nom en tête : c'est lui qui sort quand le tas déborde
+        PriorityQueue<FileMetadata> top = new PriorityQueue<>((a, b) -> b.getName().compareTo(a.getName()));
+        if (lists.isEmpty()) {
+            long found = 0;
+            for (int id = 0; id < docCount; id++) {
+                FileMetadata fm = docs[id];
+                if (fm == null || !q.matches(fm)) continue;
+                if (++found > scanAbove) return scan(q, limit, byName);
+                keep(top, fm, limit);
+            }
+        } else {
+            lists.sort((a, b) -> Integer.compare(a.size, b.size));
+            Postings smallest = lists.get(0);
+            int[] cursors = new int[lists.size()];
+            long found = 0;
+            candidates:
+            for (int i = 0; i < smallest.size; i++) {
+                int id = smallest.ids[i];
+                for (int l = 1; l < lists.size(); l++) {
+                    Postings p = lists.get(l);
+                    int c = advance(p, cursors[l], id);
+                    cursors[l] = c;
+                    if (c == p.size) break candidates; // plus aucun candidat commun possible
+                    if (p.ids[c] != id) continue candidates;
+                }
+                FileMetadata fm = docs[id];
+                if (fm == null || !q.matches(fm)) continue;
+                if (++found > scanAbove) return scan(q, limit, byName);
+                keep(top, fm, limit);
+            }
+        }
+        List<FileMetadata> out = new ArrayList<>(top);
+        out.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return out;
+    }
+
+    /** Les {@code limit} premières entrées de byName (triées par nom) qui satisfont q. */
+    private static List<FileMetadata> scan(Query q, int limit, Iterable<FileMetadata> byName) {
+        List<FileMetadata> out = new ArrayList<>();
+        for (FileMetadata fm : byName) {
+            if (!q.matches(fm)) continue;
+            out.add(fm);
+            if (out.size() == limit) break;
+        }
+        return out;
+    }
+
+    /** Listes à intersecter pour q (vide : aucune, tout parcourir), ou null si aucune entrée ne peut correspondre. */
+    private List<Postings> postings(Query q) {
+        List<Postings> lists = new ArrayList<>();
+        if (q.ext != null) {
+            Postings p = extensions.get(q.ext);
+            if (p == null) return null;
+            lists.add(p);
+        }
+        if (q.minSize > 0 || q.maxSize < Long.MAX_VALUE) {
+            Postings p = sizeRange(q.minSize, q.maxSize);
+            if (p.size == 0) return null;
+            lists.add(p);
+        }
+        List<String> grams = new ArrayList<>(q.terms);
+        if (q.prefix != null) grams.add(q.prefix);
+        for (String t : grams) {
+            if (t.length() < 3) continue;
+            for (int i = 0; i + 3 <= t.length(); i++) {
+                Postings p = trigrams.get(key(t.charAt(i), t.charAt(i + 1), t.charAt(i + 2)));
+                if (p == null || p.size == 0) return null;
+                lists.add(p);
+            }
+        }
+        return lists;
+    }
+
+    /** Ajoute fm au tas s'il fait partie des {@code limit} plus petits noms vus jusqu'ici. */
+    private static void keep(PriorityQueue<FileMetadata> top, FileMetadata fm, int limit) {
+        if (top.size() < limit) {
+            top.add(fm);
+        } else if (fm.getName().compareTo(top.peek().getName()) < 0) {
+            top.poll();
+            top.add(fm);
+        }
+    }
+
+    /** Classe de taille : nombre de bits significatifs (0 pour un fichier vide). */
+    private static int sizeClassOf(long size) {
+        return 64 - Long.numberOfLeadingZeros(size);
+    }
+
+    private Postings sizeClass(long size) {
+        int c = sizeClassOf(size);
+        Postings p = sizeClasses[c];
+        if (p == null) p = sizeClasses[c] = new Postings();
+        return p;
+    }
+
+    /** Union triée des classes couvrant [min, max] (filtre grossier, vérifié ensuite). */
+    private Postings sizeRange(long min, long max) {
+        int from = sizeClassOf(min);
+        int to = sizeClassOf(max);
+        Postings union = new Postings();
+        int total = 0;
+        for (int c = from; c <= to; c++) if (sizeClasses[c] != null) total += sizeClasses[c].size;
+        union.ids = new int[Math.max(total, 1)];
+        for (int c = from; c <= to; c++) {
+            Postings p = sizeClasses[c];
+            if (p == null) continue;
+            System.arraycopy(p.ids, 0, union.ids, union.size, p.size);
+            union.size += p.size;
+        }
+        if (to > from) Arrays.sort(union.ids, 0, union.size);
+        return union;
+    }
+
+    /** Premier indice >= from dont l'id est >= target (recherche exponentielle). */
+    private static int advance(Postings p, int from, int target) {
+        int step = 1, hi = from;
+        while (hi < p.size && p.ids[hi] < target) {
+            from = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        int i = Arrays.binarySearch(p.ids, from, Math.min(hi + 1, p.size), target);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    interface KeyConsumer { void accept(long key); }
+
+    /** Trigrammes du nom de base en minuscules (un doublon consécutif est ignoré par Postings). */
+    static void forEachTrigram(String name, KeyConsumer action) {
+        int base = baseStart(name);
+        for (int i = base; i + 3 <= name.length(); i++) {
+            action.accept(key(name.charAt(i), name.charAt(i + 1), name.charAt(i + 2)));
+        }
+    }
+
+    static long key(char a, char b, char c) {
+        return ((long) Character.toLowerCase(a) << 32) | ((long) Character.toLowerCase(b) << 16) | Character.toLowerCase(c);
+    }
+
+    static int baseStart(String name) {
+        return name.lastIndexOf('/') + 1;
+    }
+
+    static String extensionOf(String name, int base) {
+        int dot = name.lastIndexOf('.');
+        if (dot <= base || dot == name.length() - 1) return null;
+        return name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean containsIgnoreCase(String name, int from, String term) {
+        for (int i = from; i + term.length() <= name.length(); i++) {
+            if (name.regionMatches(true, i, term, 0, term.length())) return true;
+        }
+        return false;
+    }
+}
@@ -3,40 +3,109 @@ package sn.uasz.group2.p2p;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 /**
- * Indexe les fichiers d'un dossier, MAJ via WatchService.
+ * Indexe les fichiers d'un dossier et de ses sous-dossiers, MAJ via WatchService.
+ * Les noms sont les chemins relatifs à la racine, séparés par '/'. Chaque
+ * dossier a sa propre clé de surveillance, enregistrée dès qu'il apparaît.
  */
 public class SharedIndex implements AutoCloseable {
     private static final Logger log = Logger.getLogger(SharedIndex.class.getName());
 
     private final Path root;
-    private final Map<String, FileMetadata> index = new ConcurrentHashMap<>();
+    /** Trié par nom : LIST peut streamer le catalogue dans l'ordre, sans copie ni tri. */
+    private final ConcurrentNavigableMap<String, FileMetadata> index = new ConcurrentSkipListMap<>();
     private final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+    /** Index inversé des noms pour SEARCH, tenu à jour par putEntry/removeEntry. */
+    private final SearchIndex searchIndex = new SearchIndex();
+    /**
+     * Index secondaire par contenu pour GETHASH : SHA-256 → nom (String) ou
+     * noms triés (String[]) quand plusieurs fichiers ont le même contenu,
+     * tenu à jour par putEntry/removeEntry.
+     */
+    private final Map<ContentKey, Object> namesBySha = new HashMap<>();
     private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final HashCache hashCache;
+    private final HashingPipeline hashingPipeline = new HashingPipeline();
+    private final java.util.function.LongSupplier sizeGauge = this::size;
+
+    // Métriques d'indexation (voir Metrics)
+    private static final Metrics.Histogram RESCAN_MS = Metrics.global().histogram("index.rescan_ms");
+    private static final Metrics.Counter HASHED_BYTES = Metrics.global().counter("index.hashed.bytes");
+    private static final Metrics.Histogram HASH_MBPS = Metrics.global().histogram("index.hash.mbps");
+
+    /** Arbres de Merkle calculés à la demande, par SHA-256 (LRU borné). */
+    private static final int MAX_MERKLE_TREES = 256;
+    private final Map<String, MerkleTree> merkleTrees = Collections.synchronizedMap(
+        new LinkedHashMap<String, MerkleTree>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, MerkleTree> eldest) {
+                return size() > MAX_MERKLE_TREES;
+            }
+        });
     private Thread watchThread;
     private volatile boolean running = true;
 
+    /**
+     * Numéro de génération : incrémenté à chaque ajout/MAJ/retrait, avec un
+     * journal borné des derniers changements pour LIST SINCE. L'époque,
+     * tirée au hasard à chaque démarrage, distingue deux vies de l'index.
+     */
+    private final long epoch = new java.security.SecureRandom().nextLong();
+    private volatile long generation;
+    private final ArrayDeque<Change> changeLog = new ArrayDeque<>();
+    private final int maxChangeLog = Integer.getInteger("p2p.index.changeLog", 10_000);
+    private final Object summaryLock = new Object();
+    private ContentSummary summary;
+    private long summaryGeneration;
+
+    /** Un changement du journal : meta == null pour un retrait. */
+    public static final class Change {
+        public final long generation;
+        public final String name;
+        public final FileMetadata meta;
+
+        Change(long generation, String name, FileMetadata meta) {
+            this.generation = generation;
+            this.name = name;
+            this.meta = meta;
+        }
+    }
+
     public SharedIndex(Path root) throws IOException {
+        this(root, HashCache.forShare(root));
+    }
+
+    public SharedIndex(Path root, HashCache hashCache) throws IOException {
         this.root = root;
+        this.hashCache = hashCache;
         if (!Files.exists(root)) Files.createDirectories(root);
 
         this.watchService = FileSystems.getDefault().newWatchService();
-        root.register(
-            watchService,
-            StandardWatchEventKinds.ENTRY_CREATE,
-            StandardWatchEventKinds.ENTRY_MODIFY,
-            StandardWatchEventKinds.ENTRY_DELETE
-        );
-
-        rescan();       // première indexation
+
+        rescan();       // première indexation (enregistre aussi les dossiers surveillés)
         startWatcher(); // surveillance continue
+        Metrics.global().gauge("index.files", sizeGauge);
     }
 
     /** Liste courante des métadonnées (copie) sous read-lock. */
@@ -49,6 +118,256 @@ public class SharedIndex implements AutoCloseable {
         }
     }
 
+    public int size() {
+        return index.size();
+    }
+
+    public long getEpoch() { return epoch; }
+
+    public long getGeneration() { return generation; }
+
+    /**
+     * Changements depuis la génération {@code since} de l'époque {@code epoch},
+     * triés par nom, un seul par fichier (le dernier). Null si le journal ne
+     * remonte pas jusque-là (ou autre époque) : il faut alors un catalogue complet.
+     */
+    public List<Change> changesSince(long epoch, long since) {
+        rw.readLock().lock();
+        try {
+            if (epoch != this.epoch || since > generation) return null;
+            if (since == generation) return Collections.emptyList();
+            Change oldest = changeLog.peekFirst();
+            if (oldest == null || oldest.generation > since + 1) return null;
+            TreeMap<String, Change> latest = new TreeMap<>();
+            for (Iterator<Change> it = changeLog.descendingIterator(); it.hasNext(); ) {
+                Change c = it.next();
+                if (c.generation <= since) break;
+                latest.putIfAbsent(c.name, c);
+            }
+            return new ArrayList<>(latest.values());
+        } finally {
+            rw.readLock().unlock();
+        }
+    }
+
+    /**
+     * Vue triée par nom, en lecture seule et sans copie, des entrées dont le
+     * nom est strictement après {@code afterName} (tout le catalogue si null).
+     * Cohérence faible : reflète les MAJ concurrentes sans bloquer le watcher.
+     */
+    public Collection<FileMetadata> entriesAfter(String afterName) {
+        Map<String, FileMetadata> view = afterName == null ? index : index.tailMap(afterName, false);
+        return Collections.unmodifiableCollection(view.values());
+    }
+
+    /**
+     * Vue triée, sans copie, des fichiers sous le dossier {@code dir}
+     * (chemin relatif, tout le partage si vide) : une simple sous-plage de
+     * l'index, puisque "dir/..." est compris entre "dir/" et "dir0".
+     */
+    public Collection<FileMetadata> subtree(String dir) {
+        if (dir == null || dir.isEmpty()) return Collections.unmodifiableCollection(index.values());
+        return Collections.unmodifiableCollection(subtreeMap(dir).values());
+    }
+
+    private ConcurrentNavigableMap<String, FileMetadata> subtreeMap(String dir) {
+        return index.subMap(dir + '/', true, dir + ('/' + 1), false);
+    }
+
+    /** Les {@code limit} premiers fichiers, par nom, parmi ceux qui satisfont la requête, triés par nom. */
+    public List<FileMetadata> search(SearchIndex.Query query, int limit) {
+        rw.readLock().lock();
+        try {
+            if (query.getSha256Hex() != null) {
+                // sha: : l'index par contenu donne directement les candidats,
+                // déjà triés par nom (voir linkContent) : les premiers sont les bons
+                List<FileMetadata> out = new ArrayList<>();
+                for (String name : namesBySha256(query.getSha256Hex())) {
+                    if (out.size() >= limit) break;
+                    FileMetadata fm = index.get(name);
+                    if (fm != null && query.matches(fm)) out.add(fm);
+                }
+                return out;
+            }
+            String dir = query.dir;
+            return searchIndex.search(query, limit, dir == null || dir.isEmpty() ? index.values() : subtreeMap(dir).values());
+        } finally {
+            rw.readLock().unlock();
+        }
+    }
+
+    /**
+     * Résumé du catalogue pour la découverte (voir {@link ContentSummary}),
+     * reconstruit au plus une fois par génération, à la demande. La
+     * construction part d'une copie de la table prise sans le verrou de
+     * l'index : le watcher et le hachage ne l'attendent jamais.
+     */
+    public ContentSummary summary() {
+        synchronized (summaryLock) {
+            long gen = generation;
+            if (summary == null || summaryGeneration != gen) {
+                // Génération lue avant la copie (volatile, incrémentée après chaque put) : la copie
+                // contient au moins toutes les entrées de gen. Un changement plus récent incrémente
+                // la génération et sera pris au prochain appel ; un retrait concurrent ne coûte
+                // qu'un faux positif.
+                List<FileMetadata> snapshot = new ArrayList<>(index.values());
+                summary = ContentSummary.build(snapshot);
+                summaryGeneration = gen;
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * Un fichier de contenu {@code sha256Hex}, quel que soit son nom,
+     * revalidé comme par {@link #lookup(String)} : un fichier modifié depuis
+     * son indexation est écarté au profit du suivant. Null si aucun fichier
+     * partagé n'a ce contenu.
+     */
+    public FileMetadata lookupBySha256(String sha256Hex) {
+        ContentKey key = ContentKey.ofHex(sha256Hex);
+        for (String name : namesBySha256(key)) {
+            FileMetadata meta = lookup(name); // hors verrou : lookup peut re-hasher
+            if (meta != null && Arrays.equals(meta.sha256(), key.sha256)) return meta;
+        }
+        return null;
+    }
+
+    /** Noms des fichiers de contenu {@code sha256Hex}, triés (vide si aucun). */
+    public List<String> namesBySha256(String sha256Hex) {
+        return namesBySha256(ContentKey.ofHex(sha256Hex));
+    }
+
+    private List<String> namesBySha256(ContentKey key) {
+        rw.readLock().lock();
+        try {
+            Object names = namesBySha.get(key);
+            if (names == null) return Collections.emptyList();
+            if (names instanceof String) return Collections.singletonList((String) names);
+            return Arrays.asList(((String[]) names).clone());
+        } finally {
+            rw.readLock().unlock();
+        }
+    }
+
+    /**
+     * Métadonnées d'un fichier indexé, revalidées contre la taille et la date
+     * de modification actuelles (re-hash si le fichier a changé depuis).
+     * Null si le nom n'est pas dans l'index.
+     */
+    public FileMetadata lookup(String name) {
+        FileMetadata meta = index.get(name);
+        if (meta == null) return null;
+        File f = resolve(name);
+        if (f.length() != meta.getSize() || f.lastModified() != meta.getLastModified()) {
+            update(name);
+            meta = index.get(name);
+        }
+        return meta;
+    }
+
+    /** Ajout ou MAJ d'une entrée, à appeler sous write-lock. */
+    private void putEntry(FileMetadata meta) {
+        FileMetadata previous = index.put(meta.getName(), meta);
+        if (previous != null) unlinkContent(previous);
+        linkContent(meta);
+        searchIndex.add(meta);
+        logChange(meta.getName(), meta);
+    }
+
+    /** Retrait d'une entrée, à appeler sous write-lock. */
+    private boolean removeEntry(String name) {
+        FileMetadata previous = index.remove(name);
+        if (previous == null) return false;
+        unlinkContent(previous);
+        searchIndex.remove(name);
+        logChange(name, null);
+        return true;
+    }
+
+    private void linkContent(FileMetadata meta) {
+        String name = meta.getName();
+        namesBySha.merge(new ContentKey(meta.sha256()), name, (names, n) -> {
+            String[] arr = names instanceof String ? new String[] { (String) names } : (String[]) names;
+            int pos = Arrays.binarySearch(arr, name);
+            if (pos >= 0) return names;
+            pos = -pos - 1;
+            String[] grown = new String[arr.length + 1];
+            System.arraycopy(arr, 0, grown, 0, pos);
+            grown[pos] = name;
+            System.arraycopy(arr, pos, grown, pos + 1, arr.length - pos);
+            return grown;
+        });
+    }
+
+    private void unlinkContent(FileMetadata meta) {
+        String name = meta.getName();
+        namesBySha.computeIfPresent(new ContentKey(meta.sha256()), (k, names) -> {
+            if (names instanceof String) return names.equals(name) ? null : names;
+            String[] arr = (String[]) names;
+            int pos = Arrays.binarySearch(arr, name);
+            if (pos < 0) return names;
+            if (arr.length == 2) return arr[1 - pos];
+            String[] shrunk = new String[arr.length - 1];
+            System.arraycopy(arr, 0, shrunk, 0, pos);
+            System.arraycopy(arr, pos + 1, shrunk, pos, arr.length - pos - 1);
+            return shrunk;
+        });
+    }
+
+    /** Clé de namesBySha : le SHA-256 brut, partagé avec FileMetadata (pas de copie). */
+    private static final class ContentKey {
+        final byte[] sha256;
+        private final int hash;
+
+        ContentKey(byte[] sha256) {
+            this.sha256 = sha256;
+            // les octets d'un SHA-256 sont déjà uniformes : les 4 premiers suffisent
+            this.hash = (sha256[0] << 24) | ((sha256[1] & 0xff) << 16) | ((sha256[2] & 0xff) << 8) | (sha256[3] & 0xff);
+        }
+
+        static ContentKey ofHex(String sha256Hex) {
+            if (sha256Hex.length() != 64) throw new IllegalArgumentException("SHA-256 invalide: " + sha256Hex);
+            return new ContentKey(CryptoUtils.hexToBytes(sha256Hex));
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof ContentKey && Arrays.equals(sha256, ((ContentKey) o).sha256);
+        }
+
+        @Override public int hashCode() { return hash; }
+    }
+
+    private void logChange(String name, FileMetadata meta) {
+        long gen = ++generation;
+        changeLog.addLast(new Change(gen, name, meta));
+        while (changeLog.size() > maxChangeLog) changeLog.removeFirst();
+    }
+
+    /**
+     * Arbre de Merkle (SHA-256 par bloc) d'un fichier indexé. Les feuilles
+     * viennent du cache de hash, calculées pendant l'indexation ; le fichier
+     * n'est relu que pour une entrée d'un ancien format de cache. Null si
+     * le nom n'est pas dans l'index.
+     */
+    public MerkleTree merkleTree(String name) throws IOException {
+        FileMetadata meta = lookup(name);
+        if (meta == null) return null;
+        String sha = meta.getSha256Hex();
+        MerkleTree tree = merkleTrees.get(sha);
+        if (tree != null) return tree;
+        byte[][] leaves = hashCache.chunkHashes(name, sha, meta.getSize(), MerkleTree.DEFAULT_CHUNK_SIZE);
+        if (leaves != null) {
+            tree = new MerkleTree(sha, meta.getSize(), MerkleTree.DEFAULT_CHUNK_SIZE, leaves);
+        } else {
+            tree = MerkleTree.build(resolve(name), sha, MerkleTree.DEFAULT_CHUNK_SIZE);
+            if (tree.getFileSize() != meta.getSize()) throw new IOException("Fichier modifié pendant le calcul: " + name);
+            hashCache.putChunkHashes(name, sha, MerkleTree.DEFAULT_CHUNK_SIZE, tree.getLeaves());
+        }
+        merkleTrees.put(sha, tree);
+        return tree;
+    }
+
     /** Résout un nom de fichier dans le dossier racine. */
     public File resolve(String name) {
         return root.resolve(name).toFile();
@@ -67,65 +386,249 @@ public class SharedIndex implements AutoCloseable {
         }
     }
 
-    /** Rescan complet du dossier et recalcule les checksums (write-lock). */
+    /**
+     * Rescan complet de l'arborescence. Les checksums sont repris du cache
+     * persistant quand la clé du fichier n'a pas changé ; les autres sont
+     * calculés en parallèle par le {@link HashingPipeline} et publiés au fil de l'eau.
+     */
     private void rescan() {
+        long t0 = System.nanoTime();
+        Set<String> present = new HashSet<>();
+        int rehashed = indexTree(root, present);
         rw.writeLock().lock();
         try {
-            index.clear();
-            File[] files = root.toFile().listFiles(File::isFile);
-            if (files == null) return;
+            for (String name : new ArrayList<>(index.keySet())) {
+                if (!present.contains(name)) removeEntry(name);
+            }
+        } finally {
+            rw.writeLock().unlock();
+        }
+        hashCache.retainOnly(index.keySet());
+        hashCache.save();
+        RESCAN_MS.record((System.nanoTime() - t0) / 1_000_000);
+        log.info("Index reconstruit: " + index.size() + " fichier(s), " + rehashed + " re-hashé(s).");
+    }
 
-            for (File f : files) {
+    /**
+     * Parcourt {@code start} (sans suivre les liens vers des dossiers, donc
+     * sans cycle), enregistre chaque dossier auprès du WatchService et indexe
+     * chaque fichier. Les noms rencontrés sont ajoutés à {@code present} si
+     * non null. Renvoie le nombre de fichiers re-hashés.
+     */
+    private int indexTree(Path start, Set<String> present) {
+        Map<String, BasicFileAttributes> attrsByName = new HashMap<>();
+        List<File> toHash = new ArrayList<>();
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    watch(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isSymbolicLink()) attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+                    String name = nameOf(file);
+                    if (present != null) present.add(name);
+                    String hex = hashCache.lookup(name, attrs);
+                    rw.writeLock().lock();
+                    try {
+                        if (hex != null) {
+                            FileMetadata meta = new FileMetadata(name, attrs.size(), hex, attrs.lastModifiedTime().toMillis());
+                            if (!sameEntry(index.get(name), meta)) putEntry(meta);
+                        } else {
+                            removeEntry(name); // plus d'ancienne empreinte périmée
+                            attrsByName.put(name, attrs);
+                            toHash.add(file.toFile());
+                        }
+                    } finally {
+                        rw.writeLock().unlock();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    log.warning("Lecture impossible: " + file + " (" + e.getMessage() + ")");
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warning("Parcours impossible de " + start + ": " + e.getMessage());
+        }
+
+        try {
+            HashingPipeline.Stats stats = hashingPipeline.hashAll(toHash, f -> attrsByName.get(nameOf(f.toPath())).size(), f -> {
+                String name = nameOf(f.toPath());
+                return hashCache.hash(name, attrsByName.get(name), f, MerkleTree.DEFAULT_CHUNK_SIZE);
+            }, (f, hex) -> {
+                String name = nameOf(f.toPath());
+                BasicFileAttributes attrs = attrsByName.get(name);
+                rw.writeLock().lock();
                 try {
-                    String hex = CryptoUtils.sha256Hex(f);
-                    index.put(
-                        f.getName(),
-                        new FileMetadata(f.getName(), f.length(), hex, f.lastModified())
-                    );
-                } catch (IOException e) {
-                    log.warning("Checksum error for " + f.getName() + ": " + e.getMessage());
+                    putEntry(new FileMetadata(name, attrs.size(), hex, attrs.lastModifiedTime().toMillis()));
+                } finally {
+                    rw.writeLock().unlock();
                 }
+            });
+            HASHED_BYTES.add(stats.bytes);
+            if (stats.files > 0) {
+                HASH_MBPS.record(Math.round(stats.megabytesPerSecond()));
+                log.info("Hash (" + hashingPipeline.getWorkers() + " thread(s)): " + stats);
             }
-            log.info("Index reconstruit: " + index.size() + " fichier(s).");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return toHash.size();
+    }
+
+    /** Enregistre un dossier auprès du WatchService (sans effet s'il l'est déjà). */
+    private void watch(Path dir) {
+        try {
+            WatchKey key = dir.register(
+                watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE
+            );
+            watchedDirs.put(key, dir);
+        } catch (IOException e) {
+            // ex. limite inotify atteinte : le dossier reste indexé, sans MAJ en direct
+            log.warning("Surveillance impossible de " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /** Nom d'index d'un chemin : relatif à la racine, séparé par '/'. */
+    private String nameOf(Path p) {
+        String rel = root.relativize(p).toString();
+        return File.separatorChar == '/' ? rel : rel.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * MAJ incrémentale d'un chemin : re-hash du fichier s'il existe (et a
+     * changé), suppression sinon (avec tout son sous-arbre si c'était un
+     * dossier). Le hash est calculé hors verrou.
+     */
+    private void update(String name) {
+        Path p = root.resolve(name);
+        BasicFileAttributes attrs = null;
+        try {
+            attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (IOException ignore) {
+            // supprimé entre l'événement et maintenant
+        }
+        if (attrs != null && attrs.isDirectory()) return; // nouveaux dossiers : voir addDirectory()
+        if (attrs == null || !attrs.isRegularFile()) {
+            List<String> removed = new ArrayList<>();
+            rw.writeLock().lock();
+            try {
+                if (removeEntry(name)) removed.add(name);
+                for (String child : new ArrayList<>(subtreeMap(name).keySet())) {
+                    if (removeEntry(child)) removed.add(child);
+                }
+            } finally {
+                rw.writeLock().unlock();
+            }
+            for (String r : removed) hashCache.remove(r);
+            if (!removed.isEmpty()) log.info("Retiré de l'index: " + name + (removed.size() > 1 ? " (" + removed.size() + " fichiers)" : ""));
+            return;
+        }
+
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        FileMetadata current = index.get(name);
+        if (current != null && current.getSize() == size && current.getLastModified() == lastModified) {
+            return; // MODIFY en double : rien n'a changé
+        }
+
+        String hex = hashCache.lookup(name, attrs);
+        if (hex == null) {
+            try {
+                hex = hashCache.hash(name, attrs, p.toFile(), MerkleTree.DEFAULT_CHUNK_SIZE);
+            } catch (IOException e) {
+                log.warning("Checksum error for " + name + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        rw.writeLock().lock();
+        try {
+            putEntry(new FileMetadata(name, size, hex, lastModified));
         } finally {
             rw.writeLock().unlock();
         }
+        log.info("Index mis à jour: " + name);
     }
 
-    /** Démarre le watcher FS et déclenche rescan() en cas de changement. */
+    /** Dossier apparu (création, copie, déplacement) : surveillance et indexation de tout son contenu. */
+    private void addDirectory(Path dir) {
+        String name = nameOf(dir);
+        rw.writeLock().lock();
+        try {
+            removeEntry(name); // un fichier remplacé par un dossier du même nom
+        } finally {
+            rw.writeLock().unlock();
+        }
+        int rehashed = indexTree(dir, null);
+        log.info("Dossier ajouté: " + nameOf(dir) + " (" + rehashed + " fichier(s) hashé(s))");
+    }
+
+    private static boolean sameEntry(FileMetadata a, FileMetadata b) {
+        return a != null && a.getSize() == b.getSize() && a.getLastModified() == b.getLastModified()
+                && a.sameSha256(b);
+    }
+
+    /**
+     * Démarre le watcher FS : MAJ incrémentale fichier par fichier,
+     * rescan() complet seulement en cas d'OVERFLOW.
+     */
     private void startWatcher() {
         watchThread = new Thread(() -> {
             while (running) {
                 try {
                     WatchKey key = watchService.take(); // bloquant
-                    boolean changed = false;
+                    Path dir = watchedDirs.get(key);
+                    boolean overflow = false;
+                    Set<String> changed = new LinkedHashSet<>();
+                    List<Path> newDirs = new ArrayList<>();
 
                     for (WatchEvent<?> event : key.pollEvents()) {
                         WatchEvent.Kind<?> kind = event.kind();
 
-                        // Overflow = événements perdus (on rescanera de toute façon)
+                        // Overflow = événements perdus : seul cas où l'on rescanne tout
                         if (kind == StandardWatchEventKinds.OVERFLOW) {
                             log.info("WatchService OVERFLOW: certains événements ont pu être perdus.");
-                            changed = true;
+                            overflow = true;
                             continue;
                         }
 
-                        // Contexte attendu: nom du fichier (relatif à 'root')
-                        Path fileName = (Path) event.context();
-                        log.info("Changement détecté: " + kind.name() + " -> " + fileName);
-
-                        // Ici on pourrait faire une MAJ incrémentale du 'index',
-                        // mais pour rester simple et robuste : on déclenche un rescan complet.
-                        changed = true;
+                        // Contexte : nom relatif au dossier surveillé par cette clé
+                        if (dir == null) continue;
+                        Path child = dir.resolve((Path) event.context());
+                        log.fine("Changement détecté: " + kind.name() + " -> " + child);
+                        if (kind == StandardWatchEventKinds.ENTRY_CREATE
+                                && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                            newDirs.add(child);
+                        } else {
+                            changed.add(nameOf(child));
+                        }
                     }
 
-                    if (changed) rescan();
+                    if (overflow) {
+                        rescan();
+                    } else {
+                        for (Path d : newDirs) addDirectory(d);
+                        for (String name : changed) update(name);
+                        hashCache.save();
+                    }
 
                     // Important: réarmer la clé, sinon on ne reçoit plus les événements
                     boolean valid = key.reset();
                     if (!valid) {
-                        log.warning("WatchKey invalide — arrêt de la surveillance sur: " + root);
-                        break;
+                        watchedDirs.remove(key); // dossier supprimé ou déplacé
+                        if (root.equals(dir)) {
+                            log.warning("WatchKey invalide — arrêt de la surveillance sur: " + root);
+                            break;
+                        }
                     }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -144,7 +647,9 @@ public class SharedIndex implements AutoCloseable {
     @Override
     public void close() throws IOException {
         running = false;
+        Metrics.global().removeGauge("index.files", sizeGauge);
         if (watchThread != null) watchThread.interrupt();
         watchService.close();
+        hashCache.save();
     }
 }
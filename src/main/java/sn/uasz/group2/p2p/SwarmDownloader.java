@@ -0,0 +1,271 @@
+package sn.uasz.group2.p2p;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Logger;
+
+/**
+ * Téléchargement multi-sources : le fichier est découpé en blocs récupérés
+ * en parallèle chez tous les pairs qui annoncent le même SHA-256 (GETHASH :
+ * par contenu, donc un pair qui a renommé le fichier depuis le sert toujours),
+ * vérifiés un par un grâce à l'arbre de Merkle (CHUNKS), puis écrits à leur
+ * position dans un .part. Un bloc invalide est simplement redemandé.
+ *
+ * Chaque source a son worker qui pioche dans une file commune : un pair
+ * rapide prend donc naturellement plus de blocs. Quand la file est vide,
+ * les workers libres re-demandent les blocs encore en vol chez un pair lent
+ * (fin de transfert sans traînard).
+ */
+public class SwarmDownloader {
+    private static final Logger log = Logger.getLogger(SwarmDownloader.class.getName());
+
+    private static final int MAX_FAILURES_PER_SOURCE = 3;
+    /** Délai de connexion et de lecture par requête : un pair muet ne bloque pas le transfert. */
+    private static final int TIMEOUT_MS = 30_000;
+    private static final int FIND_TIMEOUT_MS = 10_000;
+
+    private static final int PENDING = 0, IN_FLIGHT = 1, DONE = 2;
+
+    /** Index local du contenu (tryLocal, recordDownload) ; les transferts passent par un client à délai fini. */
+    private final PeerClient client;
+
+    public SwarmDownloader(PeerClient client) {
+        this.client = client;
+    }
+
+    /** Un pair qui possède le contenu, et le nom sous lequel il le partage. */
+    public static final class Source {
+        public final PeerInfo peer;
+        public final String name;
+
+        public Source(PeerInfo peer, String name) {
+            this.peer = peer;
+            this.name = name;
+        }
+        @Override public String toString() { return peer + "/" + name; }
+    }
+
+    /**
+     * Interroge les pairs par SEARCH "sha:" (voir {@link NetworkSearch}) et
+     * garde ceux qui ont le même contenu, de même taille. Les pairs dont le
+     * résumé exclut ce SHA-256 ne sont pas contactés, et aucun ne renvoie
+     * son catalogue complet.
+     */
+    public List<Source> findSources(FileMetadata meta, Collection<PeerInfo> peers) {
+        List<Source> sources = new ArrayList<>();
+        if (peers.isEmpty()) return sources;
+        String query = "sha:" + meta.getSha256Hex() + " min:" + meta.getSize() + " max:" + meta.getSize();
+        try (NetworkSearch search = new NetworkSearch(FIND_TIMEOUT_MS)) {
+            // un seul nom par pair suffit : tous désignent le même contenu
+            for (NetworkSearch.Hit hit : search.search(peers, query, 1, (peer, hits, ranking) -> {}).get()) {
+                if (hit.getMetadata().sameSha256(meta)) sources.addAll(hit.getSources());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warning("Recherche des sources échouée: " + e.getCause());
+        }
+        return sources;
+    }
+
+    public Path download(FileMetadata meta, Collection<PeerInfo> peers, Path destDir) throws IOException {
+        Path dest = PeerClient.localPath(destDir, meta.getName());
+        if (client.tryLocal(meta.getSha256Hex(), meta.getSize(), dest)) {
+            return PeerClient.completed(dest, System.nanoTime()); // sans interroger les pairs
+        }
+        List<Source> sources = findSources(meta, peers);
+        if (sources.isEmpty()) throw new IOException("Aucun pair ne partage " + meta.getName());
+        return download(meta, sources, destDir);
+    }
+
+    public Path download(FileMetadata meta, List<Source> sources, Path destDir) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            return PeerClient.completed(downloadFrom(meta, sources, destDir), t0);
+        } catch (IOException e) {
+            PeerClient.FAILURES.inc();
+            throw e;
+        }
+    }
+
+    private Path downloadFrom(FileMetadata meta, List<Source> sources, Path destDir) throws IOException {
+        Path dest = PeerClient.localPath(destDir, meta.getName());
+        Path part = dest.resolveSibling(dest.getFileName() + ".part");
+        long size = meta.getSize();
+        if (client.tryLocal(meta.getSha256Hex(), size, dest)) return dest;
+        PeerClient net = new PeerClient(TIMEOUT_MS);
+        try {
+            MerkleTree tree = fetchTree(net, meta, sources);
+            int chunks = tree.getChunkCount();
+            log.info("Swarm: " + meta.getName() + " en " + chunks + " bloc(s) depuis " + sources.size() + " source(s)");
+            long t0 = System.nanoTime();
+            fetchChunks(net, meta, sources, tree, part);
+
+            String got = CryptoUtils.sha256Hex(part.toFile());
+            if (!got.equalsIgnoreCase(meta.getSha256Hex())) {
+                PeerClient.CHECKSUM_MISMATCHES.inc();
+                Files.deleteIfExists(part);
+                throw new IOException("Checksum invalide: attendu " + meta.getSha256Hex() + ", reçu " + got);
+            }
+            Files.move(part, dest, StandardCopyOption.REPLACE_EXISTING);
+            client.recordDownload(dest, got);
+            double secs = (System.nanoTime() - t0) / 1e9;
+            log.info(String.format("Swarm: %s téléchargé (%.1f Mo/s)", dest, size / secs / (1024 * 1024)));
+            return dest;
+        } finally {
+            net.closeAll();
+        }
+    }
+
+    /**
+     * Récupère tous les blocs dans part. Se termine dès que le dernier bloc
+     * est écrit : les requêtes encore en vol chez un pair lent (blocs volés
+     * en fin de transfert) sont coupées en fermant leurs sockets.
+     */
+    private void fetchChunks(PeerClient net, FileMetadata meta, List<Source> sources, MerkleTree tree,
+                             Path part) throws IOException {
+        int chunks = tree.getChunkCount();
+        AtomicIntegerArray state = new AtomicIntegerArray(chunks);
+        ConcurrentLinkedQueue<Integer> pending = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < chunks; i++) pending.add(i);
+        AtomicIntegerArray fetched = new AtomicIntegerArray(sources.size());
+        AtomicInteger remainingChunks = new AtomicInteger(chunks);
+        AtomicInteger remainingWorkers = new AtomicInteger(sources.size());
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        if (chunks == 0) finished.complete(null);
+
+        ExecutorService pool = Executors.newFixedThreadPool(sources.size(), r -> {
+            Thread t = new Thread(r, "swarm-" + meta.getName());
+            t.setDaemon(true);
+            return t;
+        });
+        try (FileChannel fc = FileChannel.open(part, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < sources.size(); i++) {
+                final int s = i;
+                pool.execute(() -> {
+                    try {
+                        work(net, sources.get(s), s, tree, fc, state, pending, fetched, remainingChunks, finished);
+                    } finally {
+                        if (remainingWorkers.decrementAndGet() == 0) finished.complete(null);
+                    }
+                });
+            }
+            try {
+                finished.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Téléchargement interrompu", e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } finally {
+                // Sans interrompre les workers : un thread interrompu pendant fc.write fermerait le canal
+                net.closeAll();
+                pool.shutdown();
+                try {
+                    pool.awaitTermination(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (int i = 0; i < chunks; i++) {
+                if (state.get(i) != DONE) throw new IOException("Bloc " + i + " introuvable chez les sources disponibles");
+            }
+            fc.force(false);
+            StringBuilder perSource = new StringBuilder();
+            for (int i = 0; i < sources.size(); i++) {
+                perSource.append(' ').append(sources.get(i).peer).append('=').append(fetched.get(i));
+            }
+            log.info("Swarm: blocs par source:" + perSource);
+        } catch (IOException e) {
+            try { Files.deleteIfExists(part); } catch (IOException ignore) {}
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Liste des SHA-256 de blocs, demandée à la première source qui répond. */
+    private static MerkleTree fetchTree(PeerClient net, FileMetadata meta, List<Source> sources) throws IOException {
+        IOException last = null;
+        for (Source src : sources) {
+            try {
+                MerkleTree tree = net.fetchChunkHashes(src.peer.address, src.peer.port, src.name);
+                if (tree != null && tree.getFileSha256Hex().equalsIgnoreCase(meta.getSha256Hex())
+                        && tree.getFileSize() == meta.getSize()) {
+                    return tree;
+                }
+            } catch (IOException e) {
+                last = e;
+            }
+        }
+        throw new IOException("Aucune source ne fournit la liste des blocs de " + meta.getName(), last);
+    }
+
+    /** Boucle d'un worker : compte dans fetched[s] les blocs qu'il a écrits. */
+    private static void work(PeerClient net, Source src, int s, MerkleTree tree, FileChannel fc,
+                             AtomicIntegerArray state, ConcurrentLinkedQueue<Integer> pending,
+                             AtomicIntegerArray fetched, AtomicInteger remainingChunks,
+                             CompletableFuture<Void> finished) {
+        int failures = 0;
+        while (failures < MAX_FAILURES_PER_SOURCE && !finished.isDone() && !Thread.currentThread().isInterrupted()) {
+            Integer idx = pending.poll();
+            if (idx != null) {
+                if (!state.compareAndSet(idx, PENDING, IN_FLIGHT)) continue; // déjà pris
+            } else {
+                idx = steal(state);
+                if (idx == null) break; // tout est fait
+            }
+
+            long offset = tree.chunkOffset(idx);
+            int length = tree.chunkLength(idx);
+            try {
+                byte[] data = net.fetchContentRange(src.peer.address, src.peer.port, tree.getFileSha256Hex(),
+                        src.name, offset, length);
+                if (!tree.verifyChunk(idx, data, 0, data.length)) {
+                    PeerClient.CORRUPT_CHUNKS.inc();
+                    throw new IOException("bloc corrompu");
+                }
+                if (state.get(idx) != DONE) {
+                    ByteBuffer buf = ByteBuffer.wrap(data);
+                    long pos = offset;
+                    while (buf.hasRemaining()) pos += fc.write(buf, pos);
+                    if (state.getAndSet(idx, DONE) != DONE) {
+                        fetched.incrementAndGet(s);
+                        if (remainingChunks.decrementAndGet() == 0) finished.complete(null);
+                    }
+                }
+            } catch (IOException e) {
+                if (finished.isDone()) break; // socket fermée à la fin du transfert
+                failures++;
+                log.warning("Swarm: échec bloc " + idx + " chez " + src + ": " + e.getMessage());
+                if (state.compareAndSet(idx, IN_FLIGHT, PENDING)) pending.add(idx);
+            }
+        }
+    }
+
+    /**
+     * File vide : prend un bloc encore en attente, sinon re-demande un bloc
+     * en vol chez une autre source. Null quand tous les blocs sont écrits.
+     */
+    private static Integer steal(AtomicIntegerArray state) {
+        int n = state.length();
+        if (n == 0) return null;
+        int start = ThreadLocalRandom.current().nextInt(n);
+        Integer inFlight = null;
+        for (int k = 0; k < n; k++) {
+            int i = (start + k) % n;
+            if (state.compareAndSet(i, PENDING, IN_FLIGHT)) return i;
+            if (inFlight == null && state.get(i) == IN_FLIGHT) inFlight = i;
+        }
+        return inFlight;
+    }
+}
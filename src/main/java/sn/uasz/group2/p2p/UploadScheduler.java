@@ -0,0 +1,193 @@
+package sn.uasz.group2.p2p;
+
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limitation du débit montant du serveur et partage équitable entre les
+ * envois en cours. Chaque réponse envoie ses octets par tranches
+ * ({@link #SLICE} au plus) et demande la permission avant chaque tranche :
+ *
+ * - limite par pair (seau à jetons par adresse) : un seul client ne peut
+ *   pas prendre plus que sa part, même si la liaison est libre ;
+ * - limite globale (seau à jetons partagé) : la tranche suivante revient à
+ *   l'envoi le moins avancé sur une horloge virtuelle (équité par dates de
+ *   départ) : chaque tranche accordée avance l'horloge de l'envoi de sa
+ *   taille, et un envoi qui commence, ou reprend après une pause, part de
+ *   l'horloge courante (date de la dernière tranche accordée), pas de zéro.
+ *   Une petite réponse passe donc devant un gros transfert déjà entamé,
+ *   et les gros transferts se partagent le reste à parts égales, quel que
+ *   soit ce que chacun a déjà envoyé.
+ *
+ * Débits en octets/s, 0 = illimité (-Dp2p.upload.rate, -Dp2p.upload.peerRate),
+ * modifiables à chaud. Sans limite globale, aucune file : l'ordre est celui
+ * du réseau.
+ */
+public class UploadScheduler {
+    /** Taille maximale d'une tranche : assez petite pour entrelacer, assez grande pour sendfile. */
+    static final int SLICE = 64 * 1024;
+    /** Rafale permise : 50 ms de débit (au moins deux tranches). */
+    private static final long BURST_MILLIS = 50;
+
+    private volatile long globalRate;
+    private volatile long peerRate;
+
+    // État de la limite globale, sous le verrou de l'instance
+    private final PriorityQueue<Upload> waiting = new PriorityQueue<>((a, b) ->
+            a.tag != b.tag ? Long.compare(a.tag, b.tag) : Long.compare(a.seq, b.seq));
+    private final TokenBucket global = new TokenBucket();
+    private long nextSeq;
+    /** Horloge virtuelle : date de départ de la dernière tranche accordée. */
+    private long virtualTime;
+
+    private final Map<InetAddress, TokenBucket> perPeer = new ConcurrentHashMap<>();
+
+    public UploadScheduler() {
+        this(Long.getLong("p2p.upload.rate", 0), Long.getLong("p2p.upload.peerRate", 0));
+    }
+
+    public UploadScheduler(long globalRate, long peerRate) {
+        this.globalRate = Math.max(0, globalRate);
+        this.peerRate = Math.max(0, peerRate);
+    }
+
+    public long getGlobalRate() { return globalRate; }
+    public long getPeerRate() { return peerRate; }
+
+    /** Débit montant total (octets/s, 0 = illimité), pris en compte dès la tranche suivante. */
+    public synchronized void setGlobalRate(long bytesPerSecond) {
+        globalRate = Math.max(0, bytesPerSecond);
+        notifyAll();
+    }
+
+    /** Débit montant par pair (octets/s, 0 = illimité). */
+    public void setPeerRate(long bytesPerSecond) {
+        peerRate = Math.max(0, bytesPerSecond);
+        for (TokenBucket b : perPeer.values()) {
+            synchronized (b) {
+                b.notifyAll();
+            }
+        }
+    }
+
+    /** Un envoi (une réponse) vers un pair ; à fermer à la fin de la réponse. */
+    public Upload open(InetAddress peer) {
+        TokenBucket bucket = perPeer.compute(peer, (k, b) -> {
+            if (b == null) b = new TokenBucket();
+            b.users++;
+            return b;
+        });
+        synchronized (this) {
+            return new Upload(peer, bucket, nextSeq++, virtualTime);
+        }
+    }
+
+    /** Nombre d'envois ouverts (pour les statistiques). */
+    public int activeUploads() {
+        int n = 0;
+        for (TokenBucket b : perPeer.values()) n += b.users;
+        return n;
+    }
+
+    public final class Upload implements AutoCloseable {
+        private final InetAddress peer;
+        private final TokenBucket bucket;
+        private final long seq;
+        /** Octets déjà accordés. */
+        private long sent;
+        /** Date virtuelle de sa prochaine tranche : priorité dans la file globale (moins = plus tôt). */
+        private long tag;
+        private boolean closed;
+
+        private Upload(InetAddress peer, TokenBucket bucket, long seq, long tag) {
+            this.peer = peer;
+            this.bucket = bucket;
+            this.seq = seq;
+            this.tag = tag;
+        }
+
+        /** Attend la permission d'envoyer {@code bytes} octets (au plus SLICE à la fois). */
+        public void acquire(int bytes) throws InterruptedIOException {
+            try {
+                long rate = peerRate;
+                if (rate > 0) {
+                    synchronized (bucket) {
+                        while (!bucket.tryTake(bytes, rate)) {
+                            bucket.wait(bucket.waitMillis(rate));
+                            rate = peerRate;
+                            if (rate == 0) break;
+                        }
+                    }
+                }
+                acquireGlobal(this, bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Envoi interrompu");
+            }
+        }
+
+        public long getSent() { return sent; }
+
+        @Override public void close() {
+            if (closed) return;
+            closed = true;
+            perPeer.computeIfPresent(peer, (k, b) -> --b.users == 0 ? null : b);
+        }
+    }
+
+    private synchronized void acquireGlobal(Upload u, int bytes) throws InterruptedException {
+        if (globalRate == 0) {
+            u.sent += bytes;
+            return;
+        }
+        u.tag = Math.max(u.tag, virtualTime); // pas de crédit accumulé pendant une pause
+        waiting.add(u);
+        try {
+            while (true) {
+                long rate = globalRate;
+                if (rate == 0) break;
+                if (waiting.peek() == u) {
+                    if (global.tryTake(bytes, rate)) break;
+                    wait(global.waitMillis(rate));
+                } else {
+                    wait();
+                }
+            }
+        } finally {
+            waiting.remove(u);
+            notifyAll(); // le suivant de la file devient tête
+        }
+        virtualTime = u.tag;
+        u.tag += bytes;
+        u.sent += bytes;
+    }
+
+    /**
+     * Seau à jetons « à crédit » : une demande passe dès que le solde est
+     * positif, quitte à le rendre négatif. Le débit moyen reste exact et une
+     * tranche plus grosse que la rafale ne bloque jamais. À appeler sous le
+     * verrou du propriétaire.
+     */
+    private static final class TokenBucket {
+        private double tokens;
+        private long lastNanos = System.nanoTime();
+        volatile int users;
+
+        boolean tryTake(int bytes, long rate) {
+            long now = System.nanoTime();
+            double burst = Math.max(rate * BURST_MILLIS / 1000.0, 2.0 * SLICE);
+            tokens = Math.min(burst, tokens + (now - lastNanos) * rate / 1e9);
+            lastNanos = now;
+            if (tokens <= 0) return false;
+            tokens -= bytes;
+            return true;
+        }
+
+        long waitMillis(long rate) {
+            return Math.max(1, (long) Math.ceil(-tokens * 1000 / rate));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package sn.uasz.group2.p2p;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Éléments communs du protocole texte/binaire entre pairs.
+ *
+ * Mode MUX (connexion persistante) : le client envoie "MUX\n", le serveur
+ * répond "OK MUX\n", puis chaque requête est une trame (id int, commande en
+ * writeUTF) et chaque réponse une suite de trames (id int, longueur int,
+ * octets) terminée par une trame de longueur 0. Le contenu des réponses est
+ * identique à celui du mode une-commande-par-connexion. Le client peut
+ * enchaîner plusieurs requêtes sans attendre (pipelining) : les réponses
+ * reviennent dans l'ordre des requêtes.
+ */
+final class Wire {
+    static final String MUX = "MUX";
+    static final String MUX_OK = "OK MUX";
+
+    private Wire() {}
+
+    /**
+     * Lit une ligne d'en-tête octet par octet, sans rien consommer au-delà du
+     * '\n' (le binaire qui suit reste dans le flux, contrairement à BufferedReader).
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') line.write(b);
+        if (b == -1 && line.size() == 0) return null;
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Côté client : lit le contenu d'une réponse MUX, trame après trame, jusqu'à la trame de fin. */
+    static final class FrameInputStream extends InputStream {
+        private final DataInputStream in;
+        private final int requestId;
+        private int remaining;
+        private boolean finished;
+
+        FrameInputStream(DataInputStream in, int requestId) {
+            this.in = in;
+            this.requestId = requestId;
+        }
+
+        /** Attend la première trame (ou la fin) de la réponse. */
+        void awaitData() throws IOException {
+            nextFrame();
+        }
+
+        /**
+         * Vrai si la réponse a été lue jusqu'à sa trame de fin. Ne lit au plus
+         * qu'un en-tête de trame : une réponse abandonnée en cours n'est pas vidée.
+         */
+        boolean finish() throws IOException {
+            if (!finished && remaining == 0) nextFrame();
+            return finished;
+        }
+
+        private boolean nextFrame() throws IOException {
+            while (remaining == 0 && !finished) {
+                int id = in.readInt();
+                int len = in.readInt();
+                if (id != requestId) throw new IOException("Réponse MUX inattendue: " + id + " au lieu de " + requestId);
+                if (len < 0) throw new IOException("Trame MUX invalide: " + len);
+                if (len == 0) finished = true;
+                remaining = len;
+            }
+            return remaining > 0;
+        }
+
+        @Override public int read() throws IOException {
+            if (!nextFrame()) return -1;
+            remaining--;
+            return in.read();
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!nextFrame()) return -1;
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0) throw new EOFException("Connexion MUX fermée en cours de réponse");
+            remaining -= n;
+            return n;
+        }
+
+        @Override public int available() throws IOException {
+            return Math.min(remaining, in.available());
+        }
+    }
+}